@@ -0,0 +1,167 @@
+package com.github.gzm55.maven.settings.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.apache.maven.eventspy.EventSpy;
+import org.apache.maven.execution.DefaultMavenExecutionRequest;
+import org.apache.maven.execution.ExecutionEvent;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.MojoExecution;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.settings.Settings;
+import org.apache.maven.settings.building.DefaultSettingsBuildingRequest;
+import org.apache.maven.settings.building.SettingsBuildingResult;
+import org.apache.maven.settings.building.SettingsProblem;
+import org.codehaus.plexus.ContainerConfiguration;
+import org.codehaus.plexus.DefaultContainerConfiguration;
+import org.codehaus.plexus.DefaultPlexusContainer;
+import org.codehaus.plexus.PlexusConstants;
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.RepositoryEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Per-event overhead of the event spy after the settings are injected, by replaying a stream of
+ * {@value #EVENTS} execution and repository events, mixed as in a large reactor build. Compare
+ * {@link #replay} with {@link #baseline}, which only walks the recorded stream, as the stream is much
+ * larger than the cpu caches while the real events are dispatched right after being created.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DispatchBenchmark {
+
+  static final int EVENTS = 100000;
+
+  /** Whether running in an IDE, then the spy still waits for the execution result. */
+  @Param({"false", "true"})
+  private boolean ide;
+
+  private DefaultPlexusContainer container;
+  private EventSpy spy;
+  private Object[] events;
+
+  @Setup
+  public void setUp() throws Exception {
+    final ContainerConfiguration configuration =
+        new DefaultContainerConfiguration()
+            .setClassPathScanning(PlexusConstants.SCANNING_INDEX)
+            .setAutoWiring(true)
+            .setName("benchmark");
+    container = new DefaultPlexusContainer(configuration);
+    spy = container.lookup(EventSpy.class, "project-settings");
+    spy.init(null);
+
+    final Properties sysProps = new Properties();
+    if (ide) {
+      sysProps.setProperty("idea.version", "2023.1");
+    }
+    spy.onEvent(new DefaultSettingsBuildingRequest().setSystemProperties(sysProps));
+    spy.onEvent(new EmptySettingsBuildingResult());
+    spy.onEvent(new DefaultMavenExecutionRequest().setSystemProperties(sysProps));
+    spy.onEvent(new SimpleExecutionEvent(ExecutionEvent.Type.ProjectDiscoveryStarted));
+
+    final DefaultRepositorySystemSession session = new DefaultRepositorySystemSession();
+    final RepositoryEvent.EventType[] repositoryTypes = RepositoryEvent.EventType.values();
+    final ExecutionEvent.Type[] executionTypes = ExecutionEvent.Type.values();
+    final Random random = new Random(42L);
+    final List<Object> stream = new ArrayList<Object>(EVENTS);
+    for (int i = 0; i < EVENTS; ++i) {
+      if (random.nextInt(10) < 7) {
+        stream.add(
+            new RepositoryEvent.Builder(
+                    session, repositoryTypes[random.nextInt(repositoryTypes.length)])
+                .build());
+      } else {
+        stream.add(new SimpleExecutionEvent(executionTypes[random.nextInt(executionTypes.length)]));
+      }
+    }
+    events = stream.toArray();
+  }
+
+  @TearDown
+  public void tearDown() {
+    container.dispose();
+  }
+
+  /** Loads the class of each event, the memory cost of walking the stream itself. */
+  @Benchmark
+  @OperationsPerInvocation(EVENTS)
+  public void baseline(final Blackhole blackhole) {
+    for (final Object event : events) {
+      blackhole.consume(event.getClass());
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(EVENTS)
+  public void replay() throws Exception {
+    for (final Object event : events) {
+      spy.onEvent(event);
+    }
+  }
+
+  private static final class EmptySettingsBuildingResult implements SettingsBuildingResult {
+    @Override
+    public Settings getEffectiveSettings() {
+      return new Settings();
+    }
+
+    @Override
+    public List<SettingsProblem> getProblems() {
+      return new ArrayList<SettingsProblem>();
+    }
+  }
+
+  private static final class SimpleExecutionEvent implements ExecutionEvent {
+    private final Type type;
+
+    private SimpleExecutionEvent(final Type type) {
+      this.type = type;
+    }
+
+    @Override
+    public Type getType() {
+      return type;
+    }
+
+    @Override
+    public MavenSession getSession() {
+      return null;
+    }
+
+    @Override
+    public MavenProject getProject() {
+      return null;
+    }
+
+    @Override
+    public MojoExecution getMojoExecution() {
+      return null;
+    }
+
+    @Override
+    public Exception getException() {
+      return null;
+    }
+  }
+}
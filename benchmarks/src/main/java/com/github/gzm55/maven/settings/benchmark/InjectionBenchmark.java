@@ -0,0 +1,119 @@
+package com.github.gzm55.maven.settings.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import org.apache.maven.cli.MavenCli;
+import org.apache.maven.eventspy.EventSpy;
+import org.apache.maven.settings.building.DefaultSettingsBuildingRequest;
+import org.apache.maven.settings.building.SettingsBuilder;
+import org.apache.maven.settings.building.SettingsBuildingRequest;
+import org.apache.maven.settings.building.SettingsBuildingResult;
+import org.codehaus.plexus.ContainerConfiguration;
+import org.codehaus.plexus.DefaultContainerConfiguration;
+import org.codehaus.plexus.DefaultPlexusContainer;
+import org.codehaus.plexus.PlexusConstants;
+import org.codehaus.plexus.util.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end latency of building the effective settings with a project settings, the same way as
+ * maven does: the event spy handles the request, then the settings builder builds it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InjectionBenchmark {
+
+  @Param({"10", "100", "1000", "10000"})
+  private int size;
+
+  /** The value of {@code projectSettings.memoryCache}. */
+  @Param({"false", "true"})
+  private String memoryCache;
+
+  /** The value of {@code projectSettings.builder}. */
+  @Param({"false", "true"})
+  private String builder;
+
+  /** The value of {@code projectSettings.snapshot}. */
+  @Param({"false", "true"})
+  private String snapshot;
+
+  private Path projectDir;
+  private File userSettings;
+  private DefaultPlexusContainer container;
+  private EventSpy spy;
+  private SettingsBuilder settingsBuilder;
+  private Properties systemProperties;
+  private Properties userProperties;
+
+  @Setup
+  public void setUp() throws Exception {
+    projectDir = Files.createTempDirectory("project-settings-benchmark");
+    final Path mvnDir = Files.createDirectories(projectDir.resolve(".mvn"));
+    Files.write(
+        mvnDir.resolve("settings.xml"),
+        SettingsGenerator.toXml(SettingsGenerator.generate(size, "project"))
+            .getBytes(StandardCharsets.UTF_8));
+    userSettings = projectDir.resolve("user-settings.xml").toFile();
+    Files.write(
+        userSettings.toPath(),
+        SettingsGenerator.toXml(SettingsGenerator.generate(size, "user"))
+            .getBytes(StandardCharsets.UTF_8));
+
+    final ContainerConfiguration configuration =
+        new DefaultContainerConfiguration()
+            .setClassPathScanning(PlexusConstants.SCANNING_INDEX)
+            .setAutoWiring(true)
+            .setName("benchmark");
+    container = new DefaultPlexusContainer(configuration);
+    spy = container.lookup(EventSpy.class, "project-settings");
+    settingsBuilder = container.lookup(SettingsBuilder.class);
+
+    systemProperties = new Properties();
+    systemProperties.putAll(System.getProperties());
+    systemProperties.setProperty(MavenCli.MULTIMODULE_PROJECT_DIRECTORY, projectDir.toString());
+    userProperties = new Properties();
+    userProperties.setProperty("projectSettings.memoryCache", memoryCache);
+    userProperties.setProperty("projectSettings.builder", builder);
+    userProperties.setProperty("projectSettings.snapshot", snapshot);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    container.dispose();
+    FileUtils.deleteDirectory(projectDir.toFile());
+  }
+
+  @Benchmark
+  public SettingsBuildingResult buildSettings() throws Exception {
+    final SettingsBuildingRequest request =
+        new DefaultSettingsBuildingRequest()
+            .setSystemProperties(systemProperties)
+            .setUserProperties(userProperties)
+            .setUserSettingsFile(userSettings);
+    spy.onEvent(request);
+    final SettingsBuildingResult result = settingsBuilder.build(request);
+    spy.onEvent(result);
+    return result;
+  }
+}
@@ -0,0 +1,63 @@
+package com.github.gzm55.maven.settings.benchmark;
+
+import com.github.gzm55.maven.settings.merge.ProjectSettingsMerger;
+import java.util.concurrent.TimeUnit;
+import org.apache.maven.settings.Settings;
+import org.apache.maven.settings.TrackableBase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Throughput of {@link ProjectSettingsMerger#merge}. The merger modifies both settings, so each
+ * invocation merges fresh clones, and {@link #cloneOnly} measures the cloning cost to be subtracted.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MergeBenchmark {
+
+  @Param({"10", "100", "1000", "10000"})
+  private int size;
+
+  private final ProjectSettingsMerger merger = new ProjectSettingsMerger();
+
+  private Settings project;
+  private Settings user;
+
+  @Setup
+  public void setUp() {
+    project = SettingsGenerator.generate(size, "project");
+    // half of the user entries are overridden by the project ones
+    user = SettingsGenerator.generate(size / 2, "project");
+    final Settings extra = SettingsGenerator.generate(size - size / 2, "user");
+    user.getServers().addAll(extra.getServers());
+    user.getMirrors().addAll(extra.getMirrors());
+    user.getProfiles().addAll(extra.getProfiles());
+  }
+
+  @Benchmark
+  public void cloneOnly(final Blackhole blackhole) {
+    blackhole.consume(user.clone());
+    blackhole.consume(project.clone());
+  }
+
+  @Benchmark
+  public Settings merge() {
+    final Settings dominant = project.clone();
+    merger.merge(dominant, user.clone(), TrackableBase.USER_LEVEL);
+    return dominant;
+  }
+}
@@ -0,0 +1,67 @@
+package com.github.gzm55.maven.settings.benchmark;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import org.apache.maven.settings.Mirror;
+import org.apache.maven.settings.Profile;
+import org.apache.maven.settings.Repository;
+import org.apache.maven.settings.Server;
+import org.apache.maven.settings.Settings;
+import org.apache.maven.settings.io.DefaultSettingsWriter;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+
+/** Generates synthetic settings of the given size, with the ids prefixed by the level name. */
+final class SettingsGenerator {
+
+  private SettingsGenerator() {}
+
+  /**
+   * @param size the number of servers, mirrors, profiles and repositories each
+   * @param prefix the prefix of all ids, the same prefix generates overlapping entries
+   */
+  static Settings generate(final int size, final String prefix) {
+    final Settings settings = new Settings();
+    settings.setLocalRepository("/tmp/" + prefix + "-repository");
+    for (int i = 0; i < size; ++i) {
+      final Server server = new Server();
+      server.setId(prefix + "-server-" + i);
+      server.setUsername("user-" + i);
+      server.setPassword("password-" + i);
+      final Xpp3Dom conf = new Xpp3Dom("configuration");
+      final Xpp3Dom timeout = new Xpp3Dom("connectTimeout");
+      timeout.setValue("5000");
+      conf.addChild(timeout);
+      server.setConfiguration(conf);
+      settings.addServer(server);
+
+      final Mirror mirror = new Mirror();
+      mirror.setId(prefix + "-mirror-" + i);
+      mirror.setUrl("https://" + prefix + ".example.com/mirror/" + i);
+      mirror.setMirrorOf(prefix + "-repo-" + i);
+      settings.addMirror(mirror);
+
+      final Repository repository = new Repository();
+      repository.setId(prefix + "-repo-" + i);
+      repository.setUrl("https://" + prefix + ".example.com/repo/" + i);
+      final Profile profile = new Profile();
+      profile.setId(prefix + "-profile-" + i);
+      profile.addRepository(repository);
+      profile.addProperty(prefix + ".property." + i, String.valueOf(i));
+      settings.addProfile(profile);
+      if (0 == i % 2) {
+        settings.addActiveProfile(profile.getId());
+      }
+    }
+    return settings;
+  }
+
+  static String toXml(final Settings settings) {
+    final StringWriter writer = new StringWriter(1024 * 64);
+    try {
+      new DefaultSettingsWriter().write(writer, null, settings);
+    } catch (final IOException err) {
+      throw new IllegalStateException(err);
+    }
+    return writer.toString();
+  }
+}
@@ -0,0 +1,4 @@
+def log = new File(basedir, 'build.log').text
+assert log.contains('Prefer the local mirror corp-local')
+assert log.contains('Downloaded from corp-local')
+assert !log.contains('Downloading from corp-remote')
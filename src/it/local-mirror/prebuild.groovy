@@ -0,0 +1,2 @@
+// resolve the parent again, even if cached by a previous run
+new File(localRepositoryPath, 'mirror-group').deleteDir()
@@ -0,0 +1,5 @@
+def log = new File(basedir, 'build.log').text
+assert log.contains('maven.repo.local.tail=')
+assert !log.contains('Downloading from')
+// read from the tail, never copied into the local repository
+assert !new File(localRepositoryPath, 'tail-group').exists()
@@ -0,0 +1,4 @@
+def log = new File(basedir, 'build.log').text
+assert log.contains('Downloaded from routing-b')
+assert !log.contains('Downloading from routing-a')
+assert new File(basedir, '.mvn/.cache/project-settings/repository-routes/prefixes-routing-b.txt').isFile()
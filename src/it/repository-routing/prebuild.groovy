@@ -0,0 +1,2 @@
+// resolve the routed parent again, even if cached by a previous run
+new File(localRepositoryPath, 'routed-b').deleteDir()
@@ -0,0 +1,7 @@
+def log = new File(basedir, 'build.log').text
+// maven uses the settings builder of the extension, and the injector stays off
+assert log.contains('Project settings will be merged by the settings builder.')
+assert !log.contains('fall back to inject the project settings')
+// the mirror declared only by the project settings is visible
+assert log.contains('Downloaded from corp-builder')
+assert !log.contains('Downloading from corp:')
@@ -0,0 +1,90 @@
+package com.github.gzm55.maven.settings.building;
+
+/**
+ * Emits the JDK Flight Recorder events of the extension hot paths. The events are implemented by
+ * {@code JfrFlightEvents}, which is compiled for java 11 and only loaded when the running JDK has
+ * the {@code jdk.jfr} module, otherwise this no-op implementation is used and the extension still
+ * runs on java 7.
+ *
+ * <p>Each {@code begin} method returns an in-flight event, or null when the event type is not
+ * enabled, which should be passed to the matching {@code commit} method.
+ */
+class FlightEvents {
+
+  private static final String JFR_EVENT_CLASS = "jdk.jfr.Event";
+  private static final String JFR_IMPL_CLASS =
+      "com.github.gzm55.maven.settings.building.JfrFlightEvents";
+
+  private static final FlightEvents INSTANCE = load();
+
+  static FlightEvents getInstance() {
+    return INSTANCE;
+  }
+
+  private static FlightEvents load() {
+    try {
+      final ClassLoader loader = FlightEvents.class.getClassLoader();
+      Class.forName(JFR_EVENT_CLASS, false, loader);
+      return (FlightEvents) Class.forName(JFR_IMPL_CLASS, true, loader).newInstance();
+    } catch (final ReflectiveOperationException | LinkageError | RuntimeException err) {
+      // no jfr, or the jdk is older than the implementation
+      return new FlightEvents();
+    }
+  }
+
+  Object beginRead() {
+    return null;
+  }
+
+  /**
+   * @param level the settings level, project, user or global
+   */
+  void commitRead(final Object event, final String location, final String level, final long bytes) {
+    // no-op
+  }
+
+  Object beginValidate() {
+    return null;
+  }
+
+  void commitValidate(final Object event, final String location, final int problems) {
+    // no-op
+  }
+
+  Object beginMerge() {
+    return null;
+  }
+
+  void commitMerge(final Object event, final int servers, final int mirrors, final int profiles) {
+    // no-op
+  }
+
+  Object beginWrite() {
+    return null;
+  }
+
+  void commitWrite(final Object event, final String location, final long chars) {
+    // no-op
+  }
+
+  Object beginIdeSync() {
+    return null;
+  }
+
+  void commitIdeSync(
+      final Object event,
+      final String localRepository,
+      final int parents,
+      final int skippedParents,
+      final int removedFiles) {
+    // no-op
+  }
+
+  Object beginDispatch() {
+    return null;
+  }
+
+  void commitDispatch(final Object event, final String eventType) {
+    // no-op
+  }
+}
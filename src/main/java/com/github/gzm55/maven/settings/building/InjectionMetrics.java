@@ -0,0 +1,146 @@
+package com.github.gzm55.maven.settings.building;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Nanosecond timings of the phases and the sizes of the settings injection in one build, reported
+ * as a summary line and optionally as a JSON file. The phases run concurrently may overlap, so the
+ * total is the wall-clock time of the injection, not the sum of the phases.
+ */
+final class InjectionMetrics {
+
+  /** The timed phases, in the order of reporting. */
+  enum Phase {
+    LOCATE("locate"),
+    CACHE("cache"),
+    READ_PROJECT("readProject"),
+    READ_SETTINGS("readSettings"),
+    VALIDATE("validate"),
+    FIX_SERVERS("fixServers"),
+    MERGE("merge"),
+    WRITE("write"),
+    PREFETCH("prefetch"),
+    IDE_SYNC("ideSync");
+
+    private final String label;
+
+    Phase(final String label) {
+      this.label = label;
+    }
+  }
+
+  static final String SERVERS = "servers";
+  static final String MIRRORS = "mirrors";
+  static final String PROFILES = "profiles";
+  static final String CACHE_HITS = "cacheHits";
+  static final String LAYERS = "layers";
+  static final String CACHED_LAYERS = "cachedLayers";
+  static final String SNAPSHOT_HITS = "snapshotHits";
+  static final String READ_AHEAD_LAYERS = "readAheadLayers";
+  static final String PREFETCHED_PARENTS = "prefetchedParents";
+  static final String PARENTS = "parents";
+  static final String SKIPPED_PARENTS = "skippedParents";
+  static final String REMOVED_FILES = "removedFiles";
+
+  private final Map<Phase, Long> durations = new EnumMap<Phase, Long>(Phase.class);
+  private final Map<String, Long> counts = new LinkedHashMap<String, Long>();
+  private long total = 0L;
+
+  /**
+   * @return the start time of a phase, to be passed to {@link #stop}
+   */
+  static long start() {
+    return System.nanoTime();
+  }
+
+  synchronized void stop(final Phase phase, final long start) {
+    final long elapsed = System.nanoTime() - start;
+    final Long total = durations.get(phase);
+    durations.put(phase, null == total ? elapsed : total + elapsed);
+  }
+
+  /** Add the wall-clock time since the start to the total. */
+  synchronized void stopTotal(final long start) {
+    total += System.nanoTime() - start;
+  }
+
+  synchronized void count(final String name, final long value) {
+    final Long total = counts.get(name);
+    counts.put(name, null == total ? value : total + value);
+  }
+
+  synchronized long getDuration(final Phase phase) {
+    final Long duration = durations.get(phase);
+    return null == duration ? 0L : duration;
+  }
+
+  synchronized long getCount(final String name) {
+    final Long count = counts.get(name);
+    return null == count ? 0L : count;
+  }
+
+  /**
+   * @return the wall-clock nanos of the injection, or 0 if nothing recorded
+   */
+  synchronized long getTotal() {
+    return total;
+  }
+
+  /**
+   * @return one line of the phase timings in milliseconds and the counts
+   */
+  synchronized String summary() {
+    final StringBuilder sb =
+        new StringBuilder("Project settings took ").append(millis(getTotal())).append(" ms:");
+    for (final Map.Entry<Phase, Long> entry : durations.entrySet()) {
+      sb.append(' ').append(entry.getKey().label).append('=').append(millis(entry.getValue()));
+    }
+    for (final Map.Entry<String, Long> entry : counts.entrySet()) {
+      sb.append(' ').append(entry.getKey()).append('=').append(entry.getValue());
+    }
+    return sb.toString();
+  }
+
+  synchronized String toJson() {
+    final StringBuilder sb = new StringBuilder("{\n  \"totalNanos\": ").append(getTotal());
+    sb.append(",\n  \"phaseNanos\": {");
+    String sep = "";
+    for (final Map.Entry<Phase, Long> entry : durations.entrySet()) {
+      sb.append(sep).append("\n    \"").append(entry.getKey().label).append("\": ");
+      sb.append(entry.getValue());
+      sep = ",";
+    }
+    sb.append(sep.isEmpty() ? "}" : "\n  }").append(",\n  \"counts\": {");
+    sep = "";
+    for (final Map.Entry<String, Long> entry : counts.entrySet()) {
+      sb.append(sep).append("\n    \"").append(entry.getKey()).append("\": ");
+      sb.append(entry.getValue());
+      sep = ",";
+    }
+    return sb.append(sep.isEmpty() ? "}" : "\n  }").append("\n}\n").toString();
+  }
+
+  void writeJson(final File file) throws IOException {
+    final File dir = file.getAbsoluteFile().getParentFile();
+    if (null != dir && !dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Unable to create " + dir.getPath());
+    }
+    try (Writer writer =
+        new OutputStreamWriter(new FileOutputStream(file), Charset.forName("UTF-8"))) {
+      writer.write(toJson());
+    }
+  }
+
+  private static String millis(final long nanos) {
+    return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+  }
+}
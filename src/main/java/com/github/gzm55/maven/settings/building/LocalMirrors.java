@@ -0,0 +1,105 @@
+package com.github.gzm55.maven.settings.building;
+
+import com.github.gzm55.maven.settings.merge.ProjectSettingsMerger;
+import java.io.File;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.maven.execution.MavenExecutionRequest;
+import org.apache.maven.model.Profile;
+import org.apache.maven.settings.Mirror;
+import org.codehaus.plexus.logging.Logger;
+
+/**
+ * Prefers the local filesystem mirrors declared as candidates by the {@code localMirrors} property
+ * of the settings profile {@value ProjectSettingsMerger#RESOLVER_PROFILE_ID}, e.g. an rsync'ed copy
+ * of the corporate repository present on some hosts only:
+ *
+ * <pre>
+ * &lt;mirror&gt;
+ *   &lt;id&gt;corp-local&lt;/id&gt;
+ *   &lt;url&gt;file:///mnt/corp-repository&lt;/url&gt;
+ *   &lt;mirrorOf&gt;*&lt;/mirrorOf&gt;
+ * &lt;/mirror&gt;
+ * &lt;mirror&gt;
+ *   &lt;id&gt;corp&lt;/id&gt;
+ *   &lt;url&gt;https://repo.corp/maven&lt;/url&gt;
+ *   &lt;mirrorOf&gt;*&lt;/mirrorOf&gt;
+ * &lt;/mirror&gt;
+ * </pre>
+ *
+ * <p>A candidate is healthy when its directory has both the marker file written by the sync job,
+ * and the repository index. A healthy one is moved ahead of all the other mirrors, so it wins over
+ * the remote mirror of the same {@code mirrorOf}, and an unhealthy one is removed, leaving the
+ * remote mirror in place. The mirrors are checked on each build, so the merged settings cached for
+ * the project are shared by the hosts with and without the local copy.
+ */
+final class LocalMirrors {
+
+  static final String LOCAL_MIRRORS = "localMirrors";
+  static final String LOCAL_MIRROR_MARKER = "localMirrorMarker";
+
+  static final String DEFAULT_MARKER = ".mirror-ready";
+  static final String INDEX_FILE = ".index/nexus-maven-repository-index.properties";
+
+  private final Logger logger;
+
+  LocalMirrors(final Logger logger) {
+    this.logger = logger;
+  }
+
+  /**
+   * @return the number of the local mirrors preferred
+   */
+  int apply(final MavenExecutionRequest request) {
+    String candidates = null;
+    String marker = DEFAULT_MARKER;
+    for (final Profile profile : request.getProfiles()) {
+      if (ProjectSettingsMerger.RESOLVER_PROFILE_ID.equals(profile.getId())) {
+        candidates = profile.getProperties().getProperty(LOCAL_MIRRORS);
+        marker = profile.getProperties().getProperty(LOCAL_MIRROR_MARKER, DEFAULT_MARKER).trim();
+      }
+    }
+    if (null == candidates || candidates.trim().isEmpty()) {
+      return 0;
+    }
+    final List<String> ids = Arrays.asList(candidates.trim().split("\\s*,\\s*"));
+
+    final List<Mirror> preferred = new ArrayList<Mirror>();
+    final List<Mirror> others = new ArrayList<Mirror>();
+    for (final Mirror mirror : request.getMirrors()) {
+      if (!ids.contains(mirror.getId())) {
+        others.add(mirror);
+      } else if (isHealthy(mirror, marker)) {
+        if (logger.isDebugEnabled()) {
+          logger.debug("Prefer the local mirror " + mirror.getId() + " at " + mirror.getUrl());
+        }
+        preferred.add(mirror);
+      } else if (logger.isDebugEnabled()) {
+        logger.debug("Skip the absent or incomplete local mirror " + mirror.getId());
+      }
+    }
+    preferred.addAll(others);
+    request.setMirrors(preferred);
+    return preferred.size() - others.size();
+  }
+
+  private boolean isHealthy(final Mirror mirror, final String marker) {
+    final File dir;
+    try {
+      final URI uri = new URI(null == mirror.getUrl() ? "" : mirror.getUrl().trim());
+      if (!"file".equals(uri.getScheme())) {
+        logger.warn(
+            "The local mirror " + mirror.getId() + " is not a file url: " + mirror.getUrl());
+        return false;
+      }
+      dir = new File(uri);
+    } catch (final URISyntaxException | IllegalArgumentException err) {
+      logger.warn("Invalid url of the local mirror " + mirror.getId() + ": " + mirror.getUrl());
+      return false;
+    }
+    return new File(dir, marker).isFile() && new File(dir, INDEX_FILE).isFile();
+  }
+}
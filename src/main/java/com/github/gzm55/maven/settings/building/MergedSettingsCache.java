@@ -0,0 +1,458 @@
+package com.github.gzm55.maven.settings.building;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import org.codehaus.plexus.logging.Logger;
+
+/**
+ * On-disk cache of the serialized effective settings. An entry is addressed by the running maven
+ * version and the content digests of all sources, i.e. the project settings with the outer layers
+ * of the cascaded project settings and the injected user or global settings, so it is shared by all
+ * the checkouts of the same settings, e.g. the per-job workspaces of a CI agent with a common
+ * {@code projectSettings.cacheDir}. The locations of the sources are kept in an entry for the
+ * diagnostics only, and the digests are compared again on reading it.
+ *
+ * <p>The cache directory may be shared by the concurrent builds on a host. An entry is written to a
+ * temporary file and atomically renamed, carries a checksum of its content so a corrupt entry is
+ * ignored, and is merged by only one build at a time under a file lock, while the other builds of
+ * the same entry wait and read the result.
+ *
+ * <p>An entry is trusted as is, so on a posix file system, the cache directory and the entries are
+ * created accessible by the owner only, and an entry owned by another user is refused, as it may
+ * inject any mirror or repository into the builds. Never share a cache directory among the users.
+ *
+ * <p>No secret is ever written to an entry, as the cache directory may be readable by the other
+ * users of the host. The settings holding the authentication of any server or proxy, or any
+ * configuration of the injected servers, are not cached, and a skipped entry without the settings
+ * tells the following builds to merge them without waiting for the lock.
+ */
+class MergedSettingsCache {
+
+  private static final String FORMAT_VERSION = "5";
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final String KEY_FORMAT = "format";
+  private static final String KEY_MAVEN_VERSION = "mavenVersion";
+  private static final String KEY_LOCAL_REPOSITORY = "localRepository";
+  private static final String KEY_SETTINGS = "settings";
+  private static final String KEY_SKIPPED = "skipped";
+  private static final String KEY_CHECKSUM = "checksum";
+  private static final String PROJECT = "project";
+  private static final String INJECT = "inject";
+  private static final String LAYER = "layer.";
+  private static final String KEY_LAYERS = "layers";
+
+  /** Merging the settings once takes far less, give up waiting for a stuck build after that. */
+  static final long LOCK_TIMEOUT_MILLIS = 30000L;
+
+  private static final long LOCK_POLL_MILLIS = 10L;
+
+  private final File cacheDir;
+  private final String mavenVersion;
+  private final Logger logger;
+
+  /** True if the file system of the cache directory has the posix owners and permissions. */
+  private final boolean posix;
+
+  MergedSettingsCache(final File cacheDir, final String mavenVersion, final Logger logger) {
+    this.cacheDir = cacheDir;
+    this.mavenVersion = mavenVersion;
+    this.logger = logger;
+    this.posix = cacheDir.toPath().getFileSystem().supportedFileAttributeViews().contains("posix");
+  }
+
+  /** Identifies one cache entry, and lazily fingerprints the sources of it. */
+  final class Key {
+    private final String target;
+    private final SourceFingerprint project;
+    private final List<SourceFingerprint> layers;
+    private final SourceFingerprint inject;
+    private String name;
+
+    private Key(
+        final String target,
+        final SourceFingerprint project,
+        final List<SourceFingerprint> layers,
+        final SourceFingerprint inject) {
+      this.target = target;
+      this.project = project;
+      this.layers = layers;
+      this.inject = inject;
+    }
+
+    /**
+     * @return the digest of the maven version and the contents of the sources, or null if any
+     *     source is not readable
+     */
+    private String getName() {
+      if (null == name) {
+        final StringBuilder id = new StringBuilder();
+        id.append(target).append('\n').append(mavenVersion).append('\n');
+        for (final SourceFingerprint layer : layers) {
+          if (!appendDigest(id, layer)) {
+            return null;
+          }
+        }
+        if (!appendDigest(id, project) || (null != inject && !appendDigest(id, inject))) {
+          return null;
+        }
+        name = SourceFingerprint.toHex(digest(id.toString().getBytes(UTF_8), "SHA-256"));
+      }
+      return name;
+    }
+
+    private File getFile() {
+      return new File(cacheDir, getName() + ".properties");
+    }
+  }
+
+  private static boolean appendDigest(final StringBuilder id, final SourceFingerprint fingerprint) {
+    final String digest = fingerprint.getDigest();
+    if (null == digest) {
+      return false;
+    }
+    id.append(digest).append('\n');
+    return true;
+  }
+
+  /** The cached result of a previous injection. */
+  static final class Entry {
+    private final String settings;
+    private final String localRepository;
+
+    private Entry(final String settings, final String localRepository) {
+      this.settings = settings;
+      this.localRepository = localRepository;
+    }
+
+    /**
+     * @return the merged settings, or null if skipped
+     */
+    String getSettings() {
+      return settings;
+    }
+
+    String getLocalRepository() {
+      return localRepository;
+    }
+
+    /**
+     * @return true if the settings of the sources are never cached
+     */
+    boolean isSkipped() {
+      return null == settings;
+    }
+  }
+
+  /**
+   * @param layers the outer layers of the cascaded project settings, outermost first
+   */
+  Key newKey(
+      final String target,
+      final SourceFingerprint project,
+      final List<SourceFingerprint> layers,
+      final SourceFingerprint inject) {
+    return new Key(target, project, layers, inject);
+  }
+
+  /**
+   * @return the cached entry, or null when absent or invalidated
+   */
+  Entry get(final Key key) {
+    if (null == key.getName()) {
+      logger.debug("Project settings cache miss, unable to fingerprint the sources");
+      return null;
+    }
+    final File file = key.getFile();
+    if (!file.isFile()) {
+      logger.debug("Project settings cache miss, no entry " + file.getPath());
+      return null;
+    }
+    if (!isOwned(file)) {
+      logger.warn("Project settings cache refused, the entry is not owned by you: " + file);
+      return null;
+    }
+
+    final Properties props = new Properties();
+    try (InputStream in = new FileInputStream(file)) {
+      props.load(in);
+    } catch (final IOException | IllegalArgumentException err) {
+      logger.debug("Project settings cache invalidated, unreadable entry " + file.getPath(), err);
+      return null;
+    }
+
+    final String settings = props.getProperty(KEY_SETTINGS);
+    if (!FORMAT_VERSION.equals(props.getProperty(KEY_FORMAT))
+        || (null == settings && !Boolean.parseBoolean(props.getProperty(KEY_SKIPPED)))) {
+      logger.debug("Project settings cache invalidated, unknown format of " + file.getPath());
+      return null;
+    }
+    if (!checksum(props).equals(props.getProperty(KEY_CHECKSUM))) {
+      logger.debug("Project settings cache invalidated, corrupt entry " + file.getPath());
+      return null;
+    }
+    if (!mavenVersion.equals(props.getProperty(KEY_MAVEN_VERSION))) {
+      logger.debug(
+          "Project settings cache invalidated, maven version changed from "
+              + props.getProperty(KEY_MAVEN_VERSION)
+              + " to "
+              + mavenVersion);
+      return null;
+    }
+
+    if (!String.valueOf(key.layers.size()).equals(props.getProperty(KEY_LAYERS, "0"))) {
+      logger.debug("Project settings cache invalidated, project settings layers changed");
+      return null;
+    }
+
+    boolean fresh = check(props, PROJECT, key.project);
+    for (int i = 0; fresh && i < key.layers.size(); ++i) {
+      fresh = check(props, LAYER + i, key.layers.get(i));
+    }
+    if (!fresh || !check(props, INJECT, key.inject)) {
+      return null;
+    }
+
+    logger.debug(
+        (null == settings ? "Project settings cache skipped entry " : "Project settings cache hit ")
+            + file.getPath());
+    return new Entry(settings, props.getProperty(KEY_LOCAL_REPOSITORY));
+  }
+
+  private boolean check(
+      final Properties props, final String prefix, final SourceFingerprint fingerprint) {
+    final String location = props.getProperty(prefix + ".location");
+    if (null == fingerprint || null == location) {
+      if (null != fingerprint || null != location) {
+        logger.debug("Project settings cache invalidated, " + prefix + " settings changed");
+        return false;
+      }
+      return true;
+    }
+    final String digest = fingerprint.getDigest();
+    if (null == digest || !digest.equals(props.getProperty(prefix + ".digest"))) {
+      logger.debug("Project settings cache invalidated, content changed: " + location);
+      return false;
+    }
+    if (!fingerprint.getLocation().equals(location) && logger.isDebugEnabled()) {
+      logger.debug(
+          "Project settings cache shared, "
+              + fingerprint.getLocation()
+              + " has the same content as "
+              + location);
+    }
+    return true;
+  }
+
+  /**
+   * @param settings the merged settings, without any secret
+   */
+  void put(final Key key, final String settings, final String localRepository) {
+    write(key, settings, localRepository);
+  }
+
+  /** Mark the settings of the sources never cached, e.g. holding secrets. */
+  void skip(final Key key) {
+    write(key, null, null);
+  }
+
+  private void write(final Key key, final String settings, final String localRepository) {
+    if (null == key.getName()) {
+      logger.debug("Project settings cache skipped, unable to fingerprint the sources");
+      return;
+    }
+    final Properties props = new Properties();
+    props.setProperty(KEY_FORMAT, FORMAT_VERSION);
+    props.setProperty(KEY_MAVEN_VERSION, mavenVersion);
+    boolean stored = store(key.project, props, PROJECT);
+    for (int i = 0; stored && i < key.layers.size(); ++i) {
+      stored = store(key.layers.get(i), props, LAYER + i);
+    }
+    if (!stored || (null != key.inject && !store(key.inject, props, INJECT))) {
+      logger.debug("Project settings cache skipped, unable to fingerprint the sources");
+      return;
+    }
+    if (!key.layers.isEmpty()) {
+      props.setProperty(KEY_LAYERS, String.valueOf(key.layers.size()));
+    }
+    if (null != localRepository) {
+      props.setProperty(KEY_LOCAL_REPOSITORY, localRepository);
+    }
+    if (null == settings) {
+      props.setProperty(KEY_SKIPPED, "true");
+    } else {
+      props.setProperty(KEY_SETTINGS, settings);
+    }
+    props.setProperty(KEY_CHECKSUM, checksum(props));
+
+    final File file = key.getFile();
+    if (!createCacheDir()) {
+      logger.debug("Project settings cache skipped, unable to create " + cacheDir.getPath());
+      return;
+    }
+    try {
+      // publish the entry atomically, so the concurrent builds never read a partial one,
+      // the temporary file is created accessible by the owner only
+      final File tmp = Files.createTempFile(cacheDir.toPath(), key.getName(), ".tmp").toFile();
+      try {
+        try (OutputStream out = new FileOutputStream(tmp)) {
+          props.store(out, "project-settings-extension cache entry");
+        }
+        Files.move(
+            tmp.toPath(),
+            file.toPath(),
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(tmp.toPath());
+      }
+      logger.debug("Project settings cache stored " + file.getPath());
+    } catch (final IOException | SecurityException err) {
+      logger.debug("Project settings cache skipped, unable to write " + file.getPath(), err);
+    }
+  }
+
+  /**
+   * Lock the entry against the other builds, waiting up to {@link #LOCK_TIMEOUT_MILLIS}.
+   *
+   * @return the lock to close after the entry is stored, or null if not locked
+   */
+  Closeable lock(final Key key) {
+    if (null == key.getName()) {
+      return null;
+    }
+    final File file = new File(cacheDir, key.getName() + ".lock");
+    if (!createCacheDir()) {
+      return null;
+    }
+    FileChannel channel = null;
+    try {
+      channel =
+          FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+      final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(LOCK_TIMEOUT_MILLIS);
+      for (FileLock lock = channel.tryLock(); ; lock = channel.tryLock()) {
+        if (null != lock) {
+          final FileChannel locked = channel;
+          channel = null;
+          return locked;
+        }
+        if (System.nanoTime() - deadline >= 0) {
+          logger.debug("Project settings cache not locked, timed out waiting for " + file);
+          return null;
+        }
+        Thread.sleep(LOCK_POLL_MILLIS);
+      }
+    } catch (final OverlappingFileLockException err) {
+      // locked by another build in the same jvm, e.g. a maven daemon
+      logger.debug("Project settings cache not locked, already locked in this process " + file);
+      return null;
+    } catch (final InterruptedException err) {
+      Thread.currentThread().interrupt();
+      return null;
+    } catch (final IOException | SecurityException err) {
+      logger.debug("Project settings cache not locked, unable to lock " + file, err);
+      return null;
+    } finally {
+      if (null != channel) {
+        try {
+          channel.close();
+        } catch (final IOException err) {
+          logger.debug("Unable to close " + file, err);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return true if the cache directory exists, or is created accessible by the owner only
+   */
+  private boolean createCacheDir() {
+    if (cacheDir.isDirectory()) {
+      return true;
+    }
+    try {
+      if (posix) {
+        Files.createDirectories(
+            cacheDir.toPath(),
+            PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+      } else {
+        Files.createDirectories(cacheDir.toPath());
+      }
+    } catch (final IOException | SecurityException err) {
+      logger.debug("Unable to create " + cacheDir.getPath(), err);
+    }
+    return cacheDir.isDirectory();
+  }
+
+  /**
+   * @return true if the file is owned by the current user, or the owners are not supported
+   */
+  private boolean isOwned(final File file) {
+    if (!posix) {
+      return true;
+    }
+    try {
+      final UserPrincipal user =
+          file.toPath()
+              .getFileSystem()
+              .getUserPrincipalLookupService()
+              .lookupPrincipalByName(System.getProperty("user.name"));
+      return user.equals(Files.getOwner(file.toPath()));
+    } catch (final IOException | SecurityException | UnsupportedOperationException err) {
+      logger.debug("Unable to check the owner of " + file, err);
+      return false;
+    }
+  }
+
+  /**
+   * @return the digest of all the properties except the checksum, in the order of the keys
+   */
+  private static String checksum(final Properties props) {
+    final StringBuilder sb = new StringBuilder();
+    for (final String name : new TreeSet<String>(props.stringPropertyNames())) {
+      if (!KEY_CHECKSUM.equals(name)) {
+        sb.append(name).append('=').append(props.getProperty(name)).append('\n');
+      }
+    }
+    return SourceFingerprint.toHex(digest(sb.toString().getBytes(UTF_8), "SHA-256"));
+  }
+
+  private static boolean store(
+      final SourceFingerprint fingerprint, final Properties props, final String prefix) {
+    final String digest = fingerprint.getDigest();
+    if (null == digest) {
+      return false;
+    }
+    props.setProperty(prefix + ".location", fingerprint.getLocation());
+    props.setProperty(prefix + ".digest", digest);
+    return true;
+  }
+
+  private static byte[] digest(final byte[] data, final String algorithm) {
+    try {
+      return MessageDigest.getInstance(algorithm).digest(data);
+    } catch (final NoSuchAlgorithmException err) {
+      throw new IllegalStateException(algorithm + " is not supported", err);
+    }
+  }
+}
@@ -0,0 +1,36 @@
+package com.github.gzm55.maven.settings.building;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import org.apache.maven.settings.building.DefaultSettingsBuilder;
+import org.apache.maven.settings.building.SettingsBuilder;
+import org.apache.maven.settings.building.SettingsBuildingException;
+import org.apache.maven.settings.building.SettingsBuildingRequest;
+import org.apache.maven.settings.building.SettingsBuildingResult;
+
+/**
+ * Settings builder contributing the merged project settings directly, which avoids serializing the
+ * merged settings and letting maven parse, validate and merge them again. The components of core
+ * extensions are ranked higher than the maven core ones, so this default implementation overrides
+ * the {@link DefaultSettingsBuilder}, which is still used to build the user and global settings. It
+ * only takes effect when {@code projectSettings.builder} is true, otherwise or on maven 4, it just
+ * delegates to the default builder.
+ */
+@Named("default")
+@Singleton
+public class ProjectSettingsBuilder implements SettingsBuilder {
+
+  @Inject private DefaultSettingsBuilder delegate;
+
+  @Inject private ProjectSettingsLoader settingsLoader;
+
+  @Override
+  public SettingsBuildingResult build(final SettingsBuildingRequest request)
+      throws SettingsBuildingException {
+    if (!settingsLoader.isBuilderEnabled(request)) {
+      return delegate.build(request);
+    }
+    return settingsLoader.build(request, delegate);
+  }
+}
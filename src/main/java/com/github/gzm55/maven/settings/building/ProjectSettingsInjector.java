@@ -1,89 +1,189 @@
 package com.github.gzm55.maven.settings.building;
 
-import com.github.gzm55.maven.settings.merge.ProjectSettingsMerger;
 import java.io.File;
 import java.io.IOException;
-import java.io.StringWriter;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import javax.inject.Inject;
 import javax.inject.Named;
-import org.apache.maven.building.FileSource;
-import org.apache.maven.building.Source;
-import org.apache.maven.cli.MavenCli;
 import org.apache.maven.eventspy.AbstractEventSpy;
+import org.apache.maven.execution.ExecutionEvent;
 import org.apache.maven.execution.MavenExecutionRequest;
 import org.apache.maven.execution.MavenExecutionResult;
-import org.apache.maven.project.MavenProject;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Profile;
+import org.apache.maven.model.building.ModelProblemCollector;
+import org.apache.maven.model.building.ModelProblemCollectorRequest;
+import org.apache.maven.model.profile.DefaultProfileActivationContext;
+import org.apache.maven.model.profile.ProfileSelector;
 import org.apache.maven.rtinfo.RuntimeInformation;
-import org.apache.maven.settings.Server;
-import org.apache.maven.settings.Settings;
-import org.apache.maven.settings.TrackableBase;
-import org.apache.maven.settings.building.DefaultSettingsProblem;
+import org.apache.maven.settings.building.SettingsBuilder;
 import org.apache.maven.settings.building.SettingsBuildingException;
 import org.apache.maven.settings.building.SettingsBuildingRequest;
 import org.apache.maven.settings.building.SettingsBuildingResult;
 import org.apache.maven.settings.building.SettingsProblem;
-import org.apache.maven.settings.building.SettingsProblemCollector;
-import org.apache.maven.settings.io.SettingsParseException;
-import org.apache.maven.settings.io.SettingsReader;
-import org.apache.maven.settings.io.SettingsWriter;
-import org.apache.maven.settings.validation.SettingsValidator;
 import org.codehaus.plexus.logging.Logger;
-import org.codehaus.plexus.util.xml.Xpp3Dom;
+import org.eclipse.aether.RepositoryEvent;
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.RepositorySystemSession;
 
 /**
- * Spy the SettingsBuildingRequest to inject project settings. This is a fast implemention, a better
- * way is to implement a new ConfigurationProcessor.
+ * Spy the SettingsBuildingRequest to inject project settings, by serializing the merged settings as
+ * the user or global settings source. When {@code projectSettings.builder} is enabled and the
+ * {@link ProjectSettingsBuilder} overrides the maven settings builder, the merged settings are
+ * contributed by the builder directly, and this spy only handles the other events.
+ *
+ * <p>The spy is a small state machine. Once the settings are built and the execution request is
+ * seen, it only waits for the start of the project discovery when prefetching the remote parent
+ * poms or syncing them for IDE, then only for the execution result when syncing, or detaches from
+ * all the following events, so a large reactor pays one field check per event. When the {@code
+ * projectSettings.fanoutReport} is requested, it keeps recording the repository events instead.
  */
 @Named("project-settings")
 public class ProjectSettingsInjector extends AbstractEventSpy {
 
   @Inject private Logger logger;
 
-  @Inject private SettingsReader settingsReader;
+  @Inject private RuntimeInformation rtInfo;
 
-  @Inject private SettingsWriter settingsWriter;
+  @Inject private ProjectSettingsLoader settingsLoader;
 
-  @Inject private SettingsValidator settingsValidator;
+  @Inject private SettingsBuilder settingsBuilder;
 
-  @Inject private RuntimeInformation rtInfo;
+  @Inject private RepositorySystem repositorySystem;
 
-  private ProjectSettingsMerger settingsMerger = new ProjectSettingsMerger();
+  @Inject private ProfileSelector profileSelector;
 
-  private static final String PROJECT_SETTINGS_FILENAME = ".mvn/settings.xml";
   public static final String PROJECT_SETTINGS_SKIP_KEY = "skipProjectSettings";
+  public static final String PROJECT_SETTINGS_CACHE_KEY = "projectSettings.cache";
+  public static final String PROJECT_SETTINGS_CACHE_DIR_KEY = "projectSettings.cacheDir";
+  public static final String PROJECT_SETTINGS_MEMORY_CACHE_KEY = "projectSettings.memoryCache";
+  public static final String PROJECT_SETTINGS_CASCADE_ROOT_KEY = "projectSettings.cascadeRoot";
+  public static final String PROJECT_SETTINGS_READ_THREADS_KEY = "projectSettings.readThreads";
+  public static final String PROJECT_SETTINGS_SNAPSHOT_KEY = "projectSettings.snapshot";
+  public static final String PROJECT_SETTINGS_READ_AHEAD_KEY = "projectSettings.readAhead";
+  public static final String PROJECT_SETTINGS_BUILDER_KEY = "projectSettings.builder";
+  public static final String PROJECT_SETTINGS_METRICS_KEY = "projectSettings.metrics";
+  public static final String PROJECT_SETTINGS_FANOUT_REPORT_KEY = "projectSettings.fanoutReport";
+  public static final String PROJECT_SETTINGS_IDE_SYNC_THREADS_KEY =
+      "projectSettings.ideSyncThreads";
+  public static final String PROJECT_SETTINGS_IDE_SYNC_JOURNAL_KEY =
+      "projectSettings.ideSyncJournal";
+  public static final String PROJECT_SETTINGS_PREFETCH_PARENTS_KEY =
+      "projectSettings.prefetchParents";
+  public static final String PROJECT_SETTINGS_PREFETCH_THREADS_KEY =
+      "projectSettings.prefetchThreads";
   private static final String IDEA_VERSION_1 = "idea.version";
   private static final String IDEA_VERSION_2 = "idea.maven.embedder.version";
   private static final String IDEA_VERSION_3 = "idea.version2020.1.1";
   private static final String SKIP_IDE_INTEGRATION_KEY = "skipIdeIntegration";
 
+  /** Maven version not checked yet. */
+  private static final int STATE_NEW = 0;
+
+  /** Handling the settings building and the execution request events. */
+  private static final int STATE_ACTIVE = 1;
+
+  /** Only waiting for the project discovery to prefetch or lock the remote parent poms. */
+  private static final int STATE_AWAIT_DISCOVERY = 2;
+
+  /** Only waiting for the execution result to sync the parent poms for IDE. */
+  private static final int STATE_AWAIT_RESULT = 3;
+
+  /** Nothing left to do for this session, e.g. on maven 4. */
+  private static final int STATE_DETACHED = 4;
+
+  /** Only recording the repository events for the fan-out report. */
+  private static final int STATE_ANALYZE = 5;
+
+  /**
+   * The events awaited, or null for all events. Read once per event, as the resolver threads
+   * deliver the repository events while the build thread switches the states.
+   */
+  private volatile Awaiting awaiting = null;
+
+  private volatile int state = STATE_NEW;
+  private boolean settingsBuilt = false;
+  private boolean requestSeen = false;
+
   private List<SettingsProblem> injectingProblems;
   private boolean inIde = false;
   private boolean skipIdeIntegration = false;
-  private String localRepo = null;
-  private Boolean isMaven4 = null;
+  private int ideSyncThreads = 1;
+  private boolean ideSyncJournal = true;
+  private File metricsFile = null;
+  private File fanoutFile = null;
+  private RepositoryFanout fanout = null;
+  private boolean prefetchParents = false;
+  private int prefetchThreads = 4;
+  private RepositorySystemSession repositorySession = null;
+  private TransportProfiles transportProfiles = null;
+
+  private final FlightEvents flightEvents = FlightEvents.getInstance();
+
+  @Override
+  public void init(final Context context) throws Exception {
+    // a new session, e.g. in a long-lived maven daemon
+    state = STATE_NEW;
+    awaiting = null;
+    repositorySession = null;
+    fanout = null;
+    settingsBuilt = false;
+    requestSeen = false;
+    injectingProblems = null;
+
+    // overlap reading the project settings with the rest of the maven bootstrap
+    final Map<String, Object> data = null == context ? null : context.getData();
+    if (null != data
+        && data.get("systemProperties") instanceof Properties
+        && data.get("userProperties") instanceof Properties
+        && !rtInfo.isMavenVersion("3.99")) {
+      settingsLoader.readAhead(
+          (Properties) data.get("systemProperties"), (Properties) data.get("userProperties"));
+    }
+  }
 
   @Override
   public void onEvent(final Object event) throws SettingsBuildingException {
-    if (null == isMaven4) {
-      isMaven4 = rtInfo.isMavenVersion("3.99"); // including maven-4 beta version
-      if (isMaven4) {
+    final Awaiting current = awaiting;
+    if (STATE_DETACHED == state || (null != current && current.isIgnored(event))) {
+      return;
+    }
+
+    final Object dispatchEvent = flightEvents.beginDispatch();
+    try {
+      dispatch(event);
+    } finally {
+      flightEvents.commitDispatch(dispatchEvent, null == event ? null : event.getClass().getName());
+    }
+  }
+
+  private void dispatch(final Object event) throws SettingsBuildingException {
+    if (STATE_NEW == state) {
+      if (rtInfo.isMavenVersion("3.99")) { // including maven-4 beta version
         logger.debug(
             "maven 4 supports project settings natively, skip extension project-settings-extension");
+        state = STATE_DETACHED;
+        return;
       }
-    }
-    if (isMaven4) {
-      return;
+      state = STATE_ACTIVE;
     }
 
-    if (event instanceof SettingsBuildingResult && null != injectingProblems) {
-      // Assuming the SettingsBuilding{Request,Result} events will be dispatched in paired order.
-      ((SettingsBuildingResult) event).getProblems().addAll(0, injectingProblems);
-      injectingProblems = null;
+    if (event instanceof RepositoryEvent) {
+      if (null != fanout) {
+        fanout.onEvent((RepositoryEvent) event);
+      }
+      return;
+    } else if (event instanceof SettingsBuildingResult) {
+      if (null != injectingProblems) {
+        // Assuming the SettingsBuilding{Request,Result} events will be dispatched in paired order.
+        ((SettingsBuildingResult) event).getProblems().addAll(0, injectingProblems);
+        injectingProblems = null;
+      }
+      settingsBuilt = true;
+      advance();
       return;
     } else if (event instanceof MavenExecutionRequest) {
       final MavenExecutionRequest mavenExecutionRequest = (MavenExecutionRequest) event;
@@ -92,79 +192,109 @@ public class ProjectSettingsInjector extends AbstractEventSpy {
           sysProps.containsKey(IDEA_VERSION_1)
               || sysProps.containsKey(IDEA_VERSION_2)
               || sysProps.containsKey(IDEA_VERSION_3);
-      skipIdeIntegration = sysProps.containsKey(skipIdeIntegration);
+      final Properties userProps = mavenExecutionRequest.getUserProperties();
+      skipIdeIntegration =
+          Boolean.parseBoolean(getProperty(userProps, sysProps, SKIP_IDE_INTEGRATION_KEY, "false"));
+      final String metricsPath =
+          getProperty(userProps, sysProps, PROJECT_SETTINGS_METRICS_KEY, null);
+      metricsFile = toProjectFile(mavenExecutionRequest, metricsPath);
+      fanoutFile =
+          toProjectFile(
+              mavenExecutionRequest,
+              getProperty(userProps, sysProps, PROJECT_SETTINGS_FANOUT_REPORT_KEY, null));
+      // before declaring the fan-out, which selects the mirrors
+      new LocalMirrors(logger).apply(mavenExecutionRequest);
+      fanout = null;
+      if (null != fanoutFile) {
+        fanout = new RepositoryFanout();
+        fanout.declare(
+            mavenExecutionRequest.getProfiles(),
+            getActiveProfileIds(mavenExecutionRequest),
+            mavenExecutionRequest.getMirrors());
+      }
+      ideSyncJournal =
+          Boolean.parseBoolean(
+              getProperty(userProps, sysProps, PROJECT_SETTINGS_IDE_SYNC_JOURNAL_KEY, "true"));
+      try {
+        ideSyncThreads =
+            Integer.parseInt(
+                getProperty(userProps, sysProps, PROJECT_SETTINGS_IDE_SYNC_THREADS_KEY, "1"));
+      } catch (final NumberFormatException err) {
+        logger.warn("Invalid " + PROJECT_SETTINGS_IDE_SYNC_THREADS_KEY + ", sync in one thread.");
+        ideSyncThreads = 1;
+      }
+      prefetchParents =
+          Boolean.parseBoolean(
+              getProperty(userProps, sysProps, PROJECT_SETTINGS_PREFETCH_PARENTS_KEY, "false"));
+      try {
+        prefetchThreads =
+            Integer.parseInt(
+                getProperty(userProps, sysProps, PROJECT_SETTINGS_PREFETCH_THREADS_KEY, "4"));
+      } catch (final NumberFormatException err) {
+        logger.warn(
+            "Invalid " + PROJECT_SETTINGS_PREFETCH_THREADS_KEY + ", prefetch in one thread.");
+        prefetchThreads = 1;
+      }
+      // the declared resolver properties win over the ones derived from the transport tuning
+      new ResolverProperties(rtInfo.isMavenVersion("[3.9,)"), logger).apply(mavenExecutionRequest);
+      // the wagon properties are removed from the jvm on closing the session, not from the wagon
+      transportProfiles = new TransportProfiles(rtInfo.isMavenVersion("[3.9,)"), logger);
+      transportProfiles.apply(
+          mavenExecutionRequest.getServers(), userProps, sysProps, System.getProperties());
+      new RepositoryRouting(getRoutingDir(mavenExecutionRequest), logger)
+          .apply(mavenExecutionRequest, rtInfo.isMavenVersion("[3.9,)"));
+      requestSeen = true;
+      advance();
       return;
     } else if (event instanceof MavenExecutionResult
         && inIde
         && !skipIdeIntegration
-        && null != localRepo) {
+        && null != settingsLoader.getLocalRepo()) {
       final MavenExecutionResult mavenExecutionResult = (MavenExecutionResult) event;
+      final String localRepo = settingsLoader.getLocalRepo();
+      await(STATE_DETACHED, null);
       if (mavenExecutionResult.hasExceptions()) {
         return;
       }
 
       logger.debug("Make IDE to identify the parent poms downloaded from custom repositories.");
 
-      for (final MavenProject p : mavenExecutionResult.getTopologicallySortedProjects()) {
-        MavenProject parent = null;
-        for (parent = p.getParent(); null != parent; parent = parent.getParent()) {
-          if (null == parent.getFile()) {
-            // parent is not a local pom file
-
-            // remove '_remote.repositories' file to mimic local installed artifact
-            final String flagFileRelPath =
-                parent.getGroupId().replace('.', File.separatorChar)
-                    + File.separatorChar
-                    + parent.getArtifactId()
-                    + File.separatorChar
-                    + parent.getVersion()
-                    + File.separatorChar
-                    + "_remote.repositories";
-            final File internalFlagFile = new File(localRepo, flagFileRelPath);
-            if (internalFlagFile.exists()) {
-              try {
-                if (internalFlagFile.delete()) {
-                  if (logger.isDebugEnabled()) {
-                    logger.debug("Remove _remote.repositories: " + internalFlagFile.getPath());
-                  }
-                } else {
-                  logger.warn("Failed to remove " + internalFlagFile.getPath());
-                }
-              } catch (final SecurityException exception) {
-                logger.warn("Unable to remove " + internalFlagFile.getPath() + ". {}", exception);
-              }
-            }
-
-            // remove '*.lastUpdated' file to clean the local cached status
-            final String statusFileRelPath =
-                parent.getGroupId().replace('.', File.separatorChar)
-                    + File.separatorChar
-                    + parent.getArtifactId()
-                    + File.separatorChar
-                    + parent.getVersion()
-                    + File.separatorChar
-                    + parent.getArtifactId()
-                    + "-"
-                    + parent.getVersion()
-                    + ".pom.lastUpdated";
-            final File internalStatusFile = new File(localRepo, statusFileRelPath);
-            if (internalStatusFile.exists()) {
-              try {
-                if (internalStatusFile.delete()) {
-                  if (logger.isDebugEnabled()) {
-                    logger.debug("Remove _remote.repositories: " + internalStatusFile.getPath());
-                  }
-                } else {
-                  logger.warn("Failed to remove " + internalStatusFile.getPath());
-                }
-              } catch (final SecurityException exception) {
-                logger.warn("Unable to remove " + internalStatusFile.getPath() + ". {}", exception);
-              }
-            }
-          }
-        }
-      }
+      final long start = InjectionMetrics.start();
+      final Object syncEvent = flightEvents.beginIdeSync();
+      final RemoteParentSync parentSync =
+          new RemoteParentSync(
+              new File(localRepo),
+              ideSyncThreads,
+              ideSyncJournal,
+              logger,
+              repositorySystem,
+              repositorySession);
+      repositorySession = null;
+      parentSync.sync(mavenExecutionResult.getTopologicallySortedProjects());
+      flightEvents.commitIdeSync(
+          syncEvent,
+          localRepo,
+          parentSync.getParents(),
+          parentSync.getSkippedParents(),
+          parentSync.getRemovedFiles());
+      final InjectionMetrics metrics = settingsLoader.getMetrics();
+      metrics.stop(InjectionMetrics.Phase.IDE_SYNC, start);
+      metrics.stopTotal(start);
+      metrics.count(InjectionMetrics.PARENTS, parentSync.getParents());
+      metrics.count(InjectionMetrics.SKIPPED_PARENTS, parentSync.getSkippedParents());
+      metrics.count(InjectionMetrics.REMOVED_FILES, parentSync.getRemovedFiles());
 
+      return;
+    } else if (event instanceof ExecutionEvent
+        && STATE_AWAIT_DISCOVERY == state
+        && ExecutionEvent.Type.ProjectDiscoveryStarted == ((ExecutionEvent) event).getType()) {
+      final MavenSession session = ((ExecutionEvent) event).getSession();
+      if (prefetchParents && null != session) {
+        prefetchParents(session);
+      }
+      // lock the parent poms by the resolver of this build when syncing them for IDE
+      repositorySession = null == session ? null : session.getRepositorySession();
+      awaitResultOrDetach();
       return;
     } else if (!(event instanceof SettingsBuildingRequest)) {
       // droping all irrelevant events
@@ -173,204 +303,213 @@ public class ProjectSettingsInjector extends AbstractEventSpy {
 
     final SettingsBuildingRequest request = (SettingsBuildingRequest) event;
 
-    if (Boolean.parseBoolean(getProperty(request, PROJECT_SETTINGS_SKIP_KEY, "false"))) {
-      if (logger.isDebugEnabled()) {
-        logger.debug("Skip loading project settings.");
+    if (settingsLoader.isBuilderEnabled(request)) {
+      if (settingsBuilder instanceof ProjectSettingsBuilder) {
+        logger.debug("Project settings will be merged by the settings builder.");
+        return;
       }
-      return;
+      logger.debug(
+          "Unable to override the settings builder, fall back to inject the project settings.");
     }
 
-    final String multiModuleProjectDirectory =
-        getProperty(request.getSystemProperties(), MavenCli.MULTIMODULE_PROJECT_DIRECTORY);
+    // save warning problems, insert back on the SettingsBuildingResult event
+    injectingProblems = settingsLoader.inject(request);
+  }
 
-    if (null == multiModuleProjectDirectory) {
-      if (logger.isDebugEnabled()) {
-        logger.debug(
-            "property "
-                + MavenCli.MULTIMODULE_PROJECT_DIRECTORY
-                + " is not set while searching project settings.xml.");
-      }
+  private void prefetchParents(final MavenSession session) {
+    final File pom = session.getRequest().getPom();
+    if (null == pom || !pom.isFile()) {
       return;
     }
+    logger.debug("Prefetch the remote parent poms of the reactor.");
+
+    final long start = InjectionMetrics.start();
+    final RemoteParentPrefetch prefetch =
+        new RemoteParentPrefetch(
+            repositorySystem,
+            session.getRepositorySession(),
+            RemoteParentPrefetch.getRepositories(
+                repositorySystem, session, getActiveProfileIds(session.getRequest())),
+            prefetchThreads,
+            logger);
+    final int fetched = prefetch.prefetch(pom);
+    final InjectionMetrics metrics = settingsLoader.getMetrics();
+    metrics.stop(InjectionMetrics.Phase.PREFETCH, start);
+    metrics.stopTotal(start);
+    metrics.count(InjectionMetrics.PREFETCHED_PARENTS, fetched);
+  }
 
-    final File projectSettingsFile =
-        new File(multiModuleProjectDirectory, PROJECT_SETTINGS_FILENAME);
-
-    if (!projectSettingsFile.exists()) {
-      return;
+  /**
+   * Select the settings profiles as maven does for each project, the files of the file activations
+   * are resolved against the multi-module project directory. Both the prefetch and the fan-out
+   * report take the repositories of these profiles.
+   *
+   * @return the ids of the profiles active explicitly, by default or by their activations
+   */
+  private List<String> getActiveProfileIds(final MavenExecutionRequest request) {
+    final DefaultProfileActivationContext context = new DefaultProfileActivationContext();
+    context.setActiveProfileIds(request.getActiveProfiles());
+    context.setInactiveProfileIds(request.getInactiveProfiles());
+    context.setSystemProperties(request.getSystemProperties());
+    context.setUserProperties(request.getUserProperties());
+    context.setProjectDirectory(request.getMultiModuleProjectDirectory());
+    final List<Profile> active =
+        profileSelector.getActiveProfiles(
+            request.getProfiles(),
+            context,
+            new ModelProblemCollector() {
+              @Override
+              public void add(final ModelProblemCollectorRequest req) {
+                // reported by maven when building the projects
+              }
+            });
+    final List<String> ids = new ArrayList<String>(active.size());
+    for (final Profile profile : active) {
+      ids.add(profile.getId());
     }
+    return ids;
+  }
 
-    final List<SettingsProblem> problems = new ArrayList<SettingsProblem>();
+  /**
+   * @return the directory of the repository routes, under the cache directory of the project
+   */
+  private static File getRoutingDir(final MavenExecutionRequest request) {
+    final String cacheDir =
+        getProperty(
+            request.getUserProperties(),
+            request.getSystemProperties(),
+            PROJECT_SETTINGS_CACHE_DIR_KEY,
+            null);
+    return new File(
+        null != cacheDir
+            ? new File(cacheDir)
+            : new File(
+                request.getMultiModuleProjectDirectory(),
+                ProjectSettingsLoader.PROJECT_SETTINGS_CACHE_DIRNAME),
+        "repository-routes");
+  }
 
-    if (logger.isDebugEnabled()) {
-      logger.debug("Reading project settings from " + projectSettingsFile.getPath());
-    }
-    final Source projectSettingsSource = getSettingsSource(projectSettingsFile, null);
-    final Settings projectSettings = readSettings(projectSettingsSource, problems);
-
-    // fix server configs for maven<3.9
-    // ref: https://maven.apache.org/guides/mini/guide-resolver-transport.html
-    if (rtInfo.isMavenVersion("(,3.9)")) {
-      for (final Server server : projectSettings.getServers()) {
-        final Xpp3Dom conf = (Xpp3Dom) server.getConfiguration();
-        for (int i = conf.getChildCount() - 1; i >= 0; i--) {
-          final Xpp3Dom child = conf.getChild(i);
-          if ("connectTimeout".equals(child.getName())
-              || "requestTimeout".equals(child.getName())) {
-            conf.removeChild(i);
-            logger.debug(
-                String.format(
-                    "fix server %s config on maven<3.9, remove key %s",
-                    server.getId(), child.getName()));
-          }
-        }
+  /** Leave the active state when both the settings and the execution request are handled. */
+  private void advance() {
+    if (STATE_ACTIVE == state && settingsBuilt && requestSeen) {
+      if (prefetchParents || (inIde && !skipIdeIntegration)) {
+        await(STATE_AWAIT_DISCOVERY, ExecutionEvent.class);
+      } else {
+        awaitResultOrDetach();
       }
     }
+  }
 
-    final Source globalSettingsSource =
-        getSettingsSource(request.getGlobalSettingsFile(), request.getGlobalSettingsSource());
-    final Source userSettingsSource =
-        getSettingsSource(request.getUserSettingsFile(), request.getUserSettingsSource());
-
-    final Source injectSource =
-        null != userSettingsSource ? userSettingsSource : globalSettingsSource;
-
-    final Settings injectSettings = readSettings(injectSource, problems);
-    settingsMerger.merge(projectSettings, injectSettings, TrackableBase.USER_LEVEL);
-
-    @SuppressWarnings("deprecation")
-    final org.apache.maven.settings.building.SettingsSource resultSource =
-        writeSettings(
-            projectSettings,
-            "memory(:"
-                + projectSettingsSource.getLocation()
-                + (null == injectSource ? "" : ":" + injectSource.getLocation())
-                + ")");
-
-    if (null == injectSource || null != userSettingsSource) {
-      request.setUserSettingsFile(null).setUserSettingsSource(resultSource);
+  private void awaitResultOrDetach() {
+    if (inIde && !skipIdeIntegration) {
+      await(STATE_AWAIT_RESULT, MavenExecutionResult.class);
     } else {
-      request.setGlobalSettingsFile(null).setGlobalSettingsSource(resultSource);
-    }
-
-    for (final SettingsProblem problem : problems) {
-      if (SettingsProblem.Severity.ERROR.compareTo(problem.getSeverity()) >= 0) {
-        throw new SettingsBuildingException(problems);
-      }
-    }
-
-    // save warning problems, insert back on the SettingsBuildingResult event
-    injectingProblems = problems.isEmpty() ? null : problems;
-
-    localRepo = projectSettings.getLocalRepository();
-    if (null == localRepo) {
-      localRepo =
-          getProperty(request.getSystemProperties(), "user.home")
-              + File.separatorChar
-              + ".m2"
-              + File.separatorChar
-              + "repository";
+      await(STATE_DETACHED, null);
     }
   }
 
-  private Source getSettingsSource(final File settingsFile, final Source settingsSource) {
-    if (null != settingsSource) {
-      return settingsSource;
-    } else if (null != settingsFile && settingsFile.exists()) {
-      return new FileSource(settingsFile);
+  /** Switch to a state only handling the events of the given type, or all events if null. */
+  private void await(final int newState, final Class<?> type) {
+    if (null != fanout) {
+      // the repository events of all the states are recorded for the fan-out report
+      awaiting = STATE_DETACHED == newState ? new Awaiting(RepositoryEvent.class) : null;
+      state = STATE_DETACHED == newState ? STATE_ANALYZE : newState;
+    } else {
+      awaiting = null == type ? null : new Awaiting(type);
+      state = newState;
     }
-    return null;
   }
 
-  private Settings readSettings(final Source settingsSource, final List<SettingsProblem> problems) {
-    if (settingsSource == null) {
-      return new Settings();
+  @Override
+  public void close() {
+    if (null != transportProfiles) {
+      transportProfiles.restore(System.getProperties());
+      transportProfiles = null;
     }
-
-    final SettingsProblemCollector problemsAdder =
-        new SettingsProblemCollector() {
-          @Override
-          public void add(
-              final SettingsProblem.Severity severity,
-              final String message,
-              int line,
-              int col,
-              final Exception cause) {
-            if (line <= 0 && col <= 0 && cause instanceof SettingsParseException) {
-              final SettingsParseException e = (SettingsParseException) cause;
-              line = e.getLineNumber();
-              col = e.getColumnNumber();
-            }
-            problems.add(
-                new DefaultSettingsProblem(
-                    message, severity, settingsSource.getLocation(), line, col, cause));
-          }
-        };
-
-    Settings settings;
-
-    try {
-      Map<String, ?> options = Collections.singletonMap(SettingsReader.IS_STRICT, Boolean.TRUE);
-
+    if (null != fanout) {
+      logger.info(fanout.summary());
       try {
-        settings = settingsReader.read(settingsSource.getInputStream(), options);
-      } catch (final SettingsParseException err) {
-        options = Collections.singletonMap(SettingsReader.IS_STRICT, Boolean.FALSE);
-        settings = settingsReader.read(settingsSource.getInputStream(), options);
-        problemsAdder.add(SettingsProblem.Severity.WARNING, err.getMessage(), 0, 0, err);
+        fanout.writeJson(fanoutFile);
+      } catch (final IOException err) {
+        logger.warn(
+            "Unable to write the repository fan-out report to " + fanoutFile.getPath(), err);
       }
-    } catch (final SettingsParseException err) {
-      problemsAdder.add(
-          SettingsProblem.Severity.FATAL,
-          "Non-parseable settings " + settingsSource.getLocation() + ": " + err.getMessage(),
-          0,
-          0,
-          err);
-      return new Settings();
-    } catch (final IOException err) {
-      problemsAdder.add(
-          SettingsProblem.Severity.FATAL,
-          "Non-readable settings " + settingsSource.getLocation() + ": " + err.getMessage(),
-          -1,
-          -1,
-          err);
-      return new Settings();
+      fanout = null;
     }
 
-    settingsValidator.validate(settings, problemsAdder);
-
-    return settings;
-  }
-
-  @SuppressWarnings("deprecation")
-  private org.apache.maven.settings.building.StringSettingsSource writeSettings(
-      final Settings settings, final String location) {
-    final StringWriter writer = new StringWriter(1024 * 4);
-
+    final InjectionMetrics metrics = settingsLoader.getMetrics();
+    if (0L == metrics.getTotal()) {
+      return;
+    }
+    if (null == metricsFile) {
+      if (logger.isDebugEnabled()) {
+        logger.debug(metrics.summary());
+      }
+      return;
+    }
+    logger.info(metrics.summary());
     try {
-      settingsWriter.write(writer, null, settings);
-      return new org.apache.maven.settings.building.StringSettingsSource(
-          writer.toString(), location);
+      metrics.writeJson(metricsFile);
     } catch (final IOException err) {
-      throw new IllegalStateException("Failed to serialize settings to memory", err);
+      logger.warn("Unable to write the project settings metrics to " + metricsFile.getPath(), err);
     }
   }
 
-  private String getProperty(final Properties fromProperties, final String key) {
-    return getProperty(fromProperties, key, null);
+  /**
+   * @return the file of the path relative to the multi-module project directory, or null
+   */
+  private static File toProjectFile(final MavenExecutionRequest request, final String path) {
+    if (null == path) {
+      return null;
+    }
+    final File file = new File(path);
+    if (!file.isAbsolute() && null != request.getMultiModuleProjectDirectory()) {
+      return new File(request.getMultiModuleProjectDirectory(), path);
+    }
+    return file;
   }
 
-  private String getProperty(final Properties fromProperties, final String key, final String def) {
-    return null == fromProperties ? null : fromProperties.getProperty(key, def);
+  private static String getProperty(
+      final Properties userProps, final Properties sysProps, final String key, final String def) {
+    final String val = ProjectSettingsLoader.getProperty(userProps, key);
+    return null != val ? val : ProjectSettingsLoader.getProperty(sysProps, key, def);
   }
 
-  private String getProperty(final SettingsBuildingRequest fromRequest, final String key) {
-    return getProperty(fromRequest, key, null);
-  }
+  /**
+   * An awaited event type, with its own event classes not awaited, so a thread still checking the
+   * events of a former type never poisons the ones of the next.
+   */
+  private static final class Awaiting {
+    private final Class<?> type;
 
-  private String getProperty(
-      final SettingsBuildingRequest fromRequest, final String key, final String def) {
-    String val = getProperty(fromRequest.getUserProperties(), key);
-    return null != val ? val : getProperty(fromRequest.getSystemProperties(), key, def);
+    /** Event classes not awaited, tried before the interface type check of each event. */
+    private final Class<?>[] ignoredClasses = new Class<?>[4];
+
+    private int ignoredNext = 0;
+
+    Awaiting(final Class<?> type) {
+      this.type = type;
+    }
+
+    /**
+     * @return true if the event is not of the awaited type
+     */
+    boolean isIgnored(final Object event) {
+      // a negative interface check thrashes the jvm type cache when the event classes interleave
+      final Class<?> clazz = event.getClass();
+      for (final Class<?> ignored : ignoredClasses) {
+        if (clazz == ignored) {
+          return true;
+        }
+      }
+      if (type.isInstance(event)) {
+        return false;
+      }
+      // racing threads may only lose an entry, never record an awaited class
+      final int next = ignoredNext;
+      ignoredClasses[next] = clazz;
+      ignoredNext = (next + 1) % ignoredClasses.length;
+      return true;
+    }
   }
 }
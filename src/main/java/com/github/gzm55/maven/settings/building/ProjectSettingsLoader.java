@@ -0,0 +1,1130 @@
+package com.github.gzm55.maven.settings.building;
+
+import static com.github.gzm55.maven.settings.building.ProjectSettingsInjector.PROJECT_SETTINGS_BUILDER_KEY;
+import static com.github.gzm55.maven.settings.building.ProjectSettingsInjector.PROJECT_SETTINGS_CACHE_DIR_KEY;
+import static com.github.gzm55.maven.settings.building.ProjectSettingsInjector.PROJECT_SETTINGS_CACHE_KEY;
+import static com.github.gzm55.maven.settings.building.ProjectSettingsInjector.PROJECT_SETTINGS_CASCADE_ROOT_KEY;
+import static com.github.gzm55.maven.settings.building.ProjectSettingsInjector.PROJECT_SETTINGS_MEMORY_CACHE_KEY;
+import static com.github.gzm55.maven.settings.building.ProjectSettingsInjector.PROJECT_SETTINGS_READ_AHEAD_KEY;
+import static com.github.gzm55.maven.settings.building.ProjectSettingsInjector.PROJECT_SETTINGS_READ_THREADS_KEY;
+import static com.github.gzm55.maven.settings.building.ProjectSettingsInjector.PROJECT_SETTINGS_SKIP_KEY;
+import static com.github.gzm55.maven.settings.building.ProjectSettingsInjector.PROJECT_SETTINGS_SNAPSHOT_KEY;
+
+import com.github.gzm55.maven.settings.building.InjectionMetrics.Phase;
+import com.github.gzm55.maven.settings.merge.ProjectSettingsMerger;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+import org.apache.maven.building.FileSource;
+import org.apache.maven.building.Source;
+import org.apache.maven.cli.MavenCli;
+import org.apache.maven.rtinfo.RuntimeInformation;
+import org.apache.maven.settings.Proxy;
+import org.apache.maven.settings.Server;
+import org.apache.maven.settings.Settings;
+import org.apache.maven.settings.TrackableBase;
+import org.apache.maven.settings.building.DefaultSettingsBuildingRequest;
+import org.apache.maven.settings.building.DefaultSettingsProblem;
+import org.apache.maven.settings.building.SettingsBuilder;
+import org.apache.maven.settings.building.SettingsBuildingException;
+import org.apache.maven.settings.building.SettingsBuildingRequest;
+import org.apache.maven.settings.building.SettingsBuildingResult;
+import org.apache.maven.settings.building.SettingsProblem;
+import org.apache.maven.settings.building.SettingsProblemCollector;
+import org.apache.maven.settings.io.SettingsParseException;
+import org.apache.maven.settings.io.SettingsReader;
+import org.apache.maven.settings.io.SettingsWriter;
+import org.apache.maven.settings.validation.SettingsValidator;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+
+/**
+ * Loads the project settings and merges them into the user or global settings, shared by the {@link
+ * ProjectSettingsInjector} event spy and the {@link ProjectSettingsBuilder}. The fragments in
+ * {@code .mvn/settings.d/} are merged in filename order under the {@code .mvn/settings.xml} of the
+ * same directory. When {@code projectSettings.cascadeRoot} is set, the project settings of the
+ * ancestor directories up to the root are merged as the outer layers.
+ *
+ * <p>The project settings files may be read ahead in the background as soon as the event spy is
+ * initialized, then the settings building request only waits for the remaining reading, and merges.
+ */
+@Named
+@Singleton
+public class ProjectSettingsLoader {
+
+  @Inject private Logger logger;
+
+  @Inject private SettingsReader settingsReader;
+
+  @Inject private SettingsWriter settingsWriter;
+
+  @Inject private SettingsValidator settingsValidator;
+
+  @Inject private RuntimeInformation rtInfo;
+
+  private ProjectSettingsMerger settingsMerger = new ProjectSettingsMerger();
+
+  private static final String PROJECT_SETTINGS_FILENAME = ".mvn/settings.xml";
+  private static final String PROJECT_SETTINGS_FRAGMENTS_DIRNAME = ".mvn/settings.d";
+  /** The default threads reading the settings of several project settings files. */
+  private static final int DEFAULT_READ_THREADS = 4;
+
+  static final String PROJECT_SETTINGS_CACHE_DIRNAME = ".mvn/.cache/project-settings";
+
+  private static final Map<String, ?> STRICT =
+      Collections.singletonMap(SettingsReader.IS_STRICT, Boolean.TRUE);
+  private static final Map<String, ?> LENIENT =
+      Collections.singletonMap(SettingsReader.IS_STRICT, Boolean.FALSE);
+
+  private volatile String localRepo = null;
+
+  private volatile InjectionMetrics metrics = new InjectionMetrics();
+
+  private volatile ReadAhead readAhead = null;
+
+  private final FlightEvents flightEvents = FlightEvents.getInstance();
+
+  /**
+   * @return the local repository of the last merged settings, or null if nothing merged
+   */
+  String getLocalRepo() {
+    return localRepo;
+  }
+
+  /**
+   * @return the metrics of the last injection or building
+   */
+  InjectionMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * @return true if the project settings should be merged by the {@link ProjectSettingsBuilder}
+   */
+  boolean isBuilderEnabled(final SettingsBuildingRequest request) {
+    return Boolean.parseBoolean(getProperty(request, PROJECT_SETTINGS_BUILDER_KEY, "false"))
+        && !rtInfo.isMavenVersion("3.99");
+  }
+
+  /**
+   * Start reading and validating the project settings files in the background, before maven builds
+   * the settings. The layers read ahead are taken by the next {@link #inject} if unchanged since,
+   * and the others are discarded.
+   *
+   * @param systemProperties the system properties of the maven invocation
+   * @param userProperties the user properties of the maven invocation
+   */
+  void readAhead(final Properties systemProperties, final Properties userProperties) {
+    readAhead = null;
+    final SettingsBuildingRequest request =
+        new DefaultSettingsBuildingRequest()
+            .setSystemProperties(systemProperties)
+            .setUserProperties(userProperties);
+    // the settings builder mode interpolates the layers by the properties of the request
+    if (!Boolean.parseBoolean(getProperty(request, PROJECT_SETTINGS_READ_AHEAD_KEY, "true"))
+        || isBuilderEnabled(request)) {
+      return;
+    }
+    final List<File> files = findProjectSettingsFiles(request);
+    if (files.isEmpty()) {
+      return;
+    }
+
+    final ReadAhead ahead =
+        new ReadAhead(
+            newFingerprints(files),
+            getSettingsSnapshot(request),
+            getReadThreads(request, files.size()));
+    final Thread thread = new Thread(ahead.task, "project-settings-read-ahead");
+    thread.setDaemon(true);
+    thread.start();
+    readAhead = ahead;
+  }
+
+  /**
+   * Merge the project settings into the user or global settings source of the request, which will
+   * be parsed again by maven.
+   *
+   * @return the warning problems to be reported with the settings building result, or null
+   */
+  List<SettingsProblem> inject(final SettingsBuildingRequest request)
+      throws SettingsBuildingException {
+    localRepo = null;
+    final InjectionMetrics metrics = new InjectionMetrics();
+    this.metrics = metrics;
+    final long start = InjectionMetrics.start();
+    try {
+      return inject(request, metrics);
+    } finally {
+      metrics.stopTotal(start);
+    }
+  }
+
+  private List<SettingsProblem> inject(
+      final SettingsBuildingRequest request, final InjectionMetrics metrics)
+      throws SettingsBuildingException {
+    final ReadAhead ahead = readAhead;
+    readAhead = null;
+
+    long start = InjectionMetrics.start();
+    final List<File> projectSettingsFiles = findProjectSettingsFiles(request);
+    if (projectSettingsFiles.isEmpty()) {
+      metrics.stop(Phase.LOCATE, start);
+      return null;
+    }
+    final String multiModuleProjectDirectory =
+        getProperty(request.getSystemProperties(), MavenCli.MULTIMODULE_PROJECT_DIRECTORY);
+
+    final Source projectSettingsSource =
+        getSettingsSource(projectSettingsFiles.get(projectSettingsFiles.size() - 1), null);
+    final Source globalSettingsSource =
+        getSettingsSource(request.getGlobalSettingsFile(), request.getGlobalSettingsSource());
+    final Source userSettingsSource =
+        getSettingsSource(request.getUserSettingsFile(), request.getUserSettingsSource());
+
+    final Source injectSource =
+        null != userSettingsSource ? userSettingsSource : globalSettingsSource;
+    final boolean injectUser = null == injectSource || null != userSettingsSource;
+    final String resultLocation =
+        "memory(:"
+            + projectSettingsSource.getLocation()
+            + (null == injectSource ? "" : ":" + injectSource.getLocation())
+            + ")";
+
+    final String target = injectUser ? TrackableBase.USER_LEVEL : TrackableBase.GLOBAL_LEVEL;
+    // take the fingerprints before reading, so any concurrent modification invalidates the caches
+    final SourceFingerprint projectFingerprint = new SourceFingerprint(projectSettingsSource);
+    final List<SourceFingerprint> layerFingerprints =
+        newFingerprints(projectSettingsFiles.subList(0, projectSettingsFiles.size() - 1));
+    final SourceFingerprint injectFingerprint =
+        null == injectSource ? null : new SourceFingerprint(injectSource);
+    metrics.stop(Phase.LOCATE, start);
+
+    start = InjectionMetrics.start();
+    final String memoryCacheKey =
+        Boolean.parseBoolean(getProperty(request, PROJECT_SETTINGS_MEMORY_CACHE_KEY, "true"))
+            ? SettingsMemoryCache.newKey(
+                multiModuleProjectDirectory, target, layerFingerprints, injectFingerprint)
+            : null;
+    final SettingsMemoryCache.Entry memoryCached =
+        null == memoryCacheKey
+            ? null
+            : SettingsMemoryCache.getInstance()
+                .get(
+                    memoryCacheKey,
+                    projectFingerprint,
+                    layerFingerprints,
+                    injectFingerprint,
+                    logger);
+    if (null != memoryCached) {
+      metrics.stop(Phase.CACHE, start);
+      metrics.count(InjectionMetrics.CACHE_HITS, 1);
+      injectCachedSettings(
+          request,
+          memoryCached.getSettings(),
+          memoryCached.getLocalRepository(),
+          resultLocation,
+          injectUser);
+      return null;
+    }
+
+    final MergedSettingsCache settingsCache =
+        getSettingsCache(request, multiModuleProjectDirectory);
+    final MergedSettingsCache.Key cacheKey =
+        null == settingsCache
+            ? null
+            : settingsCache.newKey(
+                target, projectFingerprint, layerFingerprints, injectFingerprint);
+    MergedSettingsCache.Entry cached = null == cacheKey ? null : settingsCache.get(cacheKey);
+    // only one of the concurrent builds merges a missing entry, the others wait and read it
+    final Closeable cacheLock =
+        null == cached && null != cacheKey ? settingsCache.lock(cacheKey) : null;
+    try {
+      if (null != cacheLock) {
+        cached = settingsCache.get(cacheKey);
+      }
+      final String cachedSettings = null == cached ? null : cached.getSettings();
+      if (null != cachedSettings) {
+        if (null != memoryCacheKey) {
+          SettingsMemoryCache.getInstance()
+              .put(
+                  memoryCacheKey,
+                  new SettingsMemoryCache.Entry(
+                      cachedSettings,
+                      cached.getLocalRepository(),
+                      projectFingerprint,
+                      layerFingerprints,
+                      injectFingerprint));
+        }
+        metrics.stop(Phase.CACHE, start);
+        metrics.count(InjectionMetrics.CACHE_HITS, 1);
+        injectCachedSettings(
+            request, cachedSettings, cached.getLocalRepository(), resultLocation, injectUser);
+        return null;
+      }
+      metrics.stop(Phase.CACHE, start);
+
+      final List<SettingsProblem> problems = new ArrayList<SettingsProblem>();
+
+      // read the settings to inject into concurrently with the project settings
+      final List<SettingsProblem> injectProblems = new ArrayList<SettingsProblem>();
+      final FutureTask<Settings> injectTask =
+          fork(
+              new Callable<Settings>() {
+                @Override
+                public Settings call() {
+                  return readSettings(
+                      injectSource, injectProblems, null, metrics, Phase.READ_SETTINGS);
+                }
+              },
+              null != injectSource && getReadThreads(request, projectSettingsFiles.size()) > 1);
+
+      final List<SourceFingerprint> layers = new ArrayList<SourceFingerprint>(layerFingerprints);
+      layers.add(projectFingerprint);
+      final Settings projectSettings =
+          readProjectSettings(layers, problems, request, false, ahead, metrics);
+
+      start = InjectionMetrics.start();
+      fixServerConfigs(projectSettings);
+      metrics.stop(Phase.FIX_SERVERS, start);
+
+      final Settings injectSettings;
+      try {
+        injectSettings = join(injectTask);
+      } catch (final ExecutionException err) {
+        throw new IllegalStateException("Failed to read the settings", err.getCause());
+      }
+      // the same order as reading one after another
+      problems.addAll(injectProblems);
+
+      merge(projectSettings, injectSettings, metrics);
+
+      start = InjectionMetrics.start();
+      final Object writeEvent = flightEvents.beginWrite();
+      @SuppressWarnings("deprecation")
+      final org.apache.maven.settings.building.StringSettingsSource resultSource =
+          writeSettings(projectSettings, resultLocation);
+      flightEvents.commitWrite(writeEvent, resultLocation, resultSource.getContent().length());
+      metrics.stop(Phase.WRITE, start);
+
+      injectSettings(request, resultSource, injectUser);
+
+      for (final SettingsProblem problem : problems) {
+        if (SettingsProblem.Severity.ERROR.compareTo(problem.getSeverity()) >= 0) {
+          throw new SettingsBuildingException(problems);
+        }
+      }
+
+      // only cache clean results, so that a cache hit never hides any problem
+      if (problems.isEmpty()) {
+        if (null != memoryCacheKey) {
+          SettingsMemoryCache.getInstance()
+              .put(
+                  memoryCacheKey,
+                  new SettingsMemoryCache.Entry(
+                      resultSource.getContent(),
+                      projectSettings.getLocalRepository(),
+                      projectFingerprint,
+                      layerFingerprints,
+                      injectFingerprint));
+        }
+        // a skipped entry is kept, the same sources always merge into the same secrets
+        if (null != cacheKey && null == cached) {
+          if (hasSecrets(projectSettings, injectSettings)) {
+            // never write any secret to the disk, and let the following builds skip the lock
+            logger.debug("Project settings cache skipped, the settings hold secrets");
+            settingsCache.skip(cacheKey);
+          } else {
+            settingsCache.put(
+                cacheKey, resultSource.getContent(), projectSettings.getLocalRepository());
+          }
+        }
+      }
+
+      setLocalRepo(request, projectSettings.getLocalRepository());
+
+      return problems.isEmpty() ? null : problems;
+    } finally {
+      if (null != cacheLock) {
+        try {
+          cacheLock.close();
+        } catch (final IOException err) {
+          logger.debug("Unable to unlock the project settings cache entry", err);
+        }
+      }
+    }
+  }
+
+  /**
+   * Build the user and global settings by the delegate, then merge the project settings into the
+   * effective settings directly, without serializing and parsing them again.
+   */
+  SettingsBuildingResult build(
+      final SettingsBuildingRequest request, final SettingsBuilder delegate)
+      throws SettingsBuildingException {
+    localRepo = null;
+    final InjectionMetrics metrics = new InjectionMetrics();
+    this.metrics = metrics;
+    final long start = InjectionMetrics.start();
+    try {
+      return build(request, delegate, metrics);
+    } finally {
+      metrics.stopTotal(start);
+    }
+  }
+
+  private SettingsBuildingResult build(
+      final SettingsBuildingRequest request,
+      final SettingsBuilder delegate,
+      final InjectionMetrics metrics)
+      throws SettingsBuildingException {
+    long start = InjectionMetrics.start();
+    final List<File> projectSettingsFiles = findProjectSettingsFiles(request);
+    metrics.stop(Phase.LOCATE, start);
+    if (projectSettingsFiles.isEmpty()) {
+      return delegate.build(request);
+    }
+
+    final List<SettingsProblem> problems = new ArrayList<SettingsProblem>();
+
+    // build the user and global settings concurrently with reading the project settings
+    final FutureTask<SettingsBuildingResult> delegateTask =
+        fork(
+            new Callable<SettingsBuildingResult>() {
+              @Override
+              public SettingsBuildingResult call() throws SettingsBuildingException {
+                final long start = InjectionMetrics.start();
+                try {
+                  return delegate.build(request);
+                } finally {
+                  metrics.stop(Phase.READ_SETTINGS, start);
+                }
+              }
+            },
+            getReadThreads(request, projectSettingsFiles.size()) > 1);
+
+    final Settings projectSettings =
+        readProjectSettings(
+            newFingerprints(projectSettingsFiles), problems, request, true, null, metrics);
+
+    start = InjectionMetrics.start();
+    fixServerConfigs(projectSettings);
+    metrics.stop(Phase.FIX_SERVERS, start);
+
+    final SettingsBuildingResult result;
+    try {
+      result = join(delegateTask);
+    } catch (final ExecutionException err) {
+      if (err.getCause() instanceof SettingsBuildingException) {
+        problems.addAll(((SettingsBuildingException) err.getCause()).getProblems());
+        throw new SettingsBuildingException(problems);
+      }
+      throw new IllegalStateException("Failed to build the settings", err.getCause());
+    }
+    problems.addAll(result.getProblems());
+
+    for (final SettingsProblem problem : problems) {
+      if (SettingsProblem.Severity.ERROR.compareTo(problem.getSeverity()) >= 0) {
+        throw new SettingsBuildingException(problems);
+      }
+    }
+
+    merge(projectSettings, result.getEffectiveSettings(), metrics);
+    setLocalRepo(request, projectSettings.getLocalRepository());
+
+    return new MergedSettingsBuildingResult(projectSettings, problems);
+  }
+
+  /**
+   * @return the project settings files, the outermost cascaded layer first and the project settings
+   *     of the multi-module project directory last, or empty if skipped or not found
+   */
+  private List<File> findProjectSettingsFiles(final SettingsBuildingRequest request) {
+    if (Boolean.parseBoolean(getProperty(request, PROJECT_SETTINGS_SKIP_KEY, "false"))) {
+      if (logger.isDebugEnabled()) {
+        logger.debug("Skip loading project settings.");
+      }
+      return Collections.emptyList();
+    }
+
+    final String multiModuleProjectDirectory =
+        getProperty(request.getSystemProperties(), MavenCli.MULTIMODULE_PROJECT_DIRECTORY);
+
+    if (null == multiModuleProjectDirectory) {
+      if (logger.isDebugEnabled()) {
+        logger.debug(
+            "property "
+                + MavenCli.MULTIMODULE_PROJECT_DIRECTORY
+                + " is not set while searching project settings.xml.");
+      }
+      return Collections.emptyList();
+    }
+
+    final List<File> files = new ArrayList<File>();
+    final String cascadeRoot = getProperty(request, PROJECT_SETTINGS_CASCADE_ROOT_KEY);
+    if (null != cascadeRoot) {
+      try {
+        final Path projectPath = new File(multiModuleProjectDirectory).getAbsoluteFile().toPath();
+        final Path root = projectPath.resolve(cascadeRoot).normalize();
+        if (projectPath.normalize().startsWith(root)) {
+          final List<File> ancestors = new ArrayList<File>();
+          for (Path dir = projectPath.normalize().getParent();
+              null != dir && dir.startsWith(root);
+              dir = dir.getParent()) {
+            ancestors.add(0, dir.toFile());
+          }
+          for (final File dir : ancestors) {
+            addProjectSettingsFiles(dir, files);
+          }
+        } else {
+          logger.warn(
+              "Ignore "
+                  + PROJECT_SETTINGS_CASCADE_ROOT_KEY
+                  + " "
+                  + root
+                  + ", not an ancestor of "
+                  + projectPath);
+        }
+      } catch (final InvalidPathException err) {
+        logger.warn("Ignore invalid " + PROJECT_SETTINGS_CASCADE_ROOT_KEY + " " + cascadeRoot);
+      }
+    }
+
+    addProjectSettingsFiles(new File(multiModuleProjectDirectory), files);
+    return files;
+  }
+
+  /** Add the settings fragments of a directory in filename order, then its project settings. */
+  private static void addProjectSettingsFiles(final File dir, final List<File> files) {
+    final String[] fragments = new File(dir, PROJECT_SETTINGS_FRAGMENTS_DIRNAME).list();
+    if (null != fragments) {
+      Arrays.sort(fragments);
+      for (final String fragment : fragments) {
+        final File file = new File(new File(dir, PROJECT_SETTINGS_FRAGMENTS_DIRNAME), fragment);
+        if (fragment.endsWith(".xml") && file.isFile()) {
+          files.add(file);
+        }
+      }
+    }
+
+    final File projectSettingsFile = new File(dir, PROJECT_SETTINGS_FILENAME);
+    if (projectSettingsFile.exists()) {
+      files.add(projectSettingsFile);
+    }
+  }
+
+  private static List<SourceFingerprint> newFingerprints(final List<File> files) {
+    final List<SourceFingerprint> fingerprints = new ArrayList<SourceFingerprint>(files.size());
+    for (final File file : files) {
+      fingerprints.add(new SourceFingerprint(new FileSource(file)));
+    }
+    return fingerprints;
+  }
+
+  private void fixServerConfigs(final Settings projectSettings) {
+    // fix server configs for maven<3.9
+    // ref: https://maven.apache.org/guides/mini/guide-resolver-transport.html
+    if (rtInfo.isMavenVersion("(,3.9)")) {
+      for (final Server server : projectSettings.getServers()) {
+        final Xpp3Dom conf = (Xpp3Dom) server.getConfiguration();
+        for (int i = conf.getChildCount() - 1; i >= 0; i--) {
+          final Xpp3Dom child = conf.getChild(i);
+          if ("connectTimeout".equals(child.getName())
+              || "requestTimeout".equals(child.getName())) {
+            conf.removeChild(i);
+            logger.debug(
+                String.format(
+                    "fix server %s config on maven<3.9, remove key %s",
+                    server.getId(), child.getName()));
+          }
+        }
+      }
+    }
+  }
+
+  @SuppressWarnings("deprecation")
+  private void injectSettings(
+      final SettingsBuildingRequest request,
+      final org.apache.maven.settings.building.SettingsSource resultSource,
+      final boolean injectUser) {
+    if (injectUser) {
+      request.setUserSettingsFile(null).setUserSettingsSource(resultSource);
+    } else {
+      request.setGlobalSettingsFile(null).setGlobalSettingsSource(resultSource);
+    }
+  }
+
+  private void injectCachedSettings(
+      final SettingsBuildingRequest request,
+      final String settings,
+      final String localRepository,
+      final String location,
+      final boolean injectUser) {
+    injectSettings(request, newStringSettingsSource(settings, location), injectUser);
+    setLocalRepo(request, localRepository);
+  }
+
+  /**
+   * Restoring the secrets on each hit costs more than merging the settings again, as measured by
+   * the {@code SettingsCacheBenchmark}, so the settings holding any are never cached. The
+   * configurations of the injected servers, e.g. the http headers carrying a token, count as
+   * secrets, as they are deeply merged with the project ones.
+   *
+   * @param merged the merged settings
+   * @param injected the injected user or global settings
+   * @return true if any server or proxy has an authentication, or any injected server has a
+   *     configuration
+   */
+  private static boolean hasSecrets(final Settings merged, final Settings injected) {
+    for (final Server server : merged.getServers()) {
+      if (null != server.getUsername()
+          || null != server.getPassword()
+          || null != server.getPrivateKey()
+          || null != server.getPassphrase()) {
+        return true;
+      }
+    }
+    for (final Proxy proxy : merged.getProxies()) {
+      if (null != proxy.getUsername() || null != proxy.getPassword()) {
+        return true;
+      }
+    }
+    for (final Server server : injected.getServers()) {
+      if (null != server.getConfiguration()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void setLocalRepo(final SettingsBuildingRequest request, final String localRepository) {
+    localRepo = localRepository;
+    if (null == localRepo) {
+      localRepo =
+          getProperty(request.getSystemProperties(), "user.home")
+              + File.separatorChar
+              + ".m2"
+              + File.separatorChar
+              + "repository";
+    }
+  }
+
+  private MergedSettingsCache getSettingsCache(
+      final SettingsBuildingRequest request, final String multiModuleProjectDirectory) {
+    if (!Boolean.parseBoolean(getProperty(request, PROJECT_SETTINGS_CACHE_KEY, "false"))) {
+      return null;
+    }
+    return new MergedSettingsCache(
+        getCacheDir(request, multiModuleProjectDirectory), rtInfo.getMavenVersion(), logger);
+  }
+
+  private SettingsSnapshot getSettingsSnapshot(final SettingsBuildingRequest request) {
+    if (!Boolean.parseBoolean(getProperty(request, PROJECT_SETTINGS_SNAPSHOT_KEY, "false"))) {
+      return null;
+    }
+    if (!rtInfo.isMavenVersion(SettingsSnapshot.SUPPORTED_MAVEN_VERSIONS)) {
+      logger.debug(
+          "Project settings snapshot is not supported by maven " + rtInfo.getMavenVersion());
+      return null;
+    }
+    return new SettingsSnapshot(
+        getCacheDir(
+            request,
+            getProperty(request.getSystemProperties(), MavenCli.MULTIMODULE_PROJECT_DIRECTORY)),
+        rtInfo.getMavenVersion(),
+        logger);
+  }
+
+  private static File getCacheDir(
+      final SettingsBuildingRequest request, final String multiModuleProjectDirectory) {
+    final String cacheDir = getProperty(request, PROJECT_SETTINGS_CACHE_DIR_KEY);
+    return null != cacheDir
+        ? new File(cacheDir)
+        : new File(multiModuleProjectDirectory, PROJECT_SETTINGS_CACHE_DIRNAME);
+  }
+
+  private Source getSettingsSource(final File settingsFile, final Source settingsSource) {
+    if (null != settingsSource) {
+      return settingsSource;
+    } else if (null != settingsFile && settingsFile.exists()) {
+      return new FileSource(settingsFile);
+    }
+    return null;
+  }
+
+  /**
+   * @param interpolation if not null, interpolate the raw content of the source by the properties
+   *     of the request before parsing
+   * @param readPhase the phase timing the reading and parsing, the validation is timed separately
+   */
+  private Settings readSettings(
+      final Source settingsSource,
+      final List<SettingsProblem> problems,
+      final SettingsBuildingRequest interpolation,
+      final InjectionMetrics metrics,
+      final Phase readPhase) {
+    if (settingsSource == null) {
+      return new Settings();
+    }
+
+    final SettingsProblemCollector problemsAdder =
+        new SettingsProblemCollector() {
+          @Override
+          public void add(
+              final SettingsProblem.Severity severity,
+              final String message,
+              int line,
+              int col,
+              final Exception cause) {
+            if (line <= 0 && col <= 0 && cause instanceof SettingsParseException) {
+              final SettingsParseException e = (SettingsParseException) cause;
+              line = e.getLineNumber();
+              col = e.getColumnNumber();
+            }
+            problems.add(
+                new DefaultSettingsProblem(
+                    message, severity, settingsSource.getLocation(), line, col, cause));
+          }
+        };
+
+    Settings settings;
+
+    final long start = InjectionMetrics.start();
+    final Object readEvent = flightEvents.beginRead();
+    long bytes = -1L;
+    try {
+      // buffer the content once, so a lenient re-parse never reads the source again
+      byte[] content = readFully(settingsSource);
+      bytes = content.length;
+      if (null != interpolation) {
+        content =
+            SettingsInterpolator.interpolate(
+                content, interpolation.getUserProperties(), interpolation.getSystemProperties());
+      }
+
+      try {
+        settings = settingsReader.read(new ByteArrayInputStream(content), STRICT);
+      } catch (final SettingsParseException err) {
+        settings = settingsReader.read(new ByteArrayInputStream(content), LENIENT);
+        problemsAdder.add(SettingsProblem.Severity.WARNING, err.getMessage(), 0, 0, err);
+      }
+    } catch (final SettingsParseException err) {
+      problemsAdder.add(
+          SettingsProblem.Severity.FATAL,
+          "Non-parseable settings " + settingsSource.getLocation() + ": " + err.getMessage(),
+          0,
+          0,
+          err);
+      return new Settings();
+    } catch (final IOException err) {
+      problemsAdder.add(
+          SettingsProblem.Severity.FATAL,
+          "Non-readable settings " + settingsSource.getLocation() + ": " + err.getMessage(),
+          -1,
+          -1,
+          err);
+      return new Settings();
+    } finally {
+      flightEvents.commitRead(
+          readEvent,
+          settingsSource.getLocation(),
+          Phase.READ_PROJECT == readPhase ? "project" : "settings",
+          bytes);
+      metrics.stop(readPhase, start);
+    }
+
+    final long validateStart = InjectionMetrics.start();
+    final Object validateEvent = flightEvents.beginValidate();
+    final int problemsBefore = problems.size();
+    settingsValidator.validate(settings, problemsAdder);
+    flightEvents.commitValidate(
+        validateEvent, settingsSource.getLocation(), problems.size() - problemsBefore);
+    metrics.stop(Phase.VALIDATE, validateStart);
+
+    return settings;
+  }
+
+  /**
+   * Read the project settings layers and merge them from the outermost to the innermost. The layers
+   * to read are parsed concurrently. Without interpolation, each parsed layer and the merged outer
+   * layers are cached, so only the changed files are read again, and the parsed layers may be
+   * loaded from their binary snapshots.
+   *
+   * @param layers the project settings layers, outermost first
+   * @param interpolate if true, interpolate the raw content of the layers by the properties of the
+   *     request before parsing
+   * @param ahead the layers read ahead, or null
+   */
+  private Settings readProjectSettings(
+      final List<SourceFingerprint> layers,
+      final List<SettingsProblem> problems,
+      final SettingsBuildingRequest request,
+      final boolean interpolate,
+      final ReadAhead ahead,
+      final InjectionMetrics metrics) {
+    final int last = layers.size() - 1;
+    // the interpolated layers depend on the properties of each build
+    final SettingsLayerCache layerCache =
+        !interpolate && last > 0 ? SettingsLayerCache.getInstance() : null;
+    final SettingsBuildingRequest interpolation = interpolate ? request : null;
+    final SettingsSnapshot snapshot = interpolate ? null : getSettingsSnapshot(request);
+
+    Settings merged = null;
+    int next = 0;
+    for (int i = last; null != layerCache && i > 0; --i) {
+      merged = layerCache.get(layers.subList(0, i), logger);
+      if (null != merged) {
+        next = i;
+        break;
+      }
+    }
+
+    final List<LayerReader> readers = new ArrayList<LayerReader>();
+    final List<LayerReader> toRead = new ArrayList<LayerReader>();
+    final Settings[] parsed = new Settings[last + 1 - next];
+    int readAhead = 0;
+    for (int i = next; i <= last; ++i) {
+      if (null != layerCache) {
+        parsed[i - next] = layerCache.get(Collections.singletonList(layers.get(i)), logger);
+      }
+      if (null == parsed[i - next]) {
+        LayerReader reader = null == ahead ? null : ahead.take(layers.get(i), metrics);
+        if (null == reader) {
+          reader = new LayerReader(layers.get(i), interpolation, snapshot, metrics);
+          toRead.add(reader);
+        } else {
+          ++readAhead;
+        }
+        readers.add(reader);
+      }
+    }
+    readLayers(toRead, getReadThreads(request, layers.size()));
+
+    int readIndex = 0;
+    for (int i = next; i <= last; ++i) {
+      Settings layer = parsed[i - next];
+      if (null == layer) {
+        final LayerReader reader = readers.get(readIndex++);
+        final List<SettingsProblem> layerProblems = reader.problems;
+        layer = reader.settings;
+        problems.addAll(layerProblems);
+        // only cache clean layers, so that a cache hit never hides any problem
+        if (null != layerCache && layerProblems.isEmpty()) {
+          layerCache.put(Collections.singletonList(layers.get(i)), layer);
+        }
+      }
+      if (null != merged) {
+        final long start = InjectionMetrics.start();
+        settingsMerger.mergeLayer(layer, merged);
+        metrics.stop(Phase.MERGE, start);
+      }
+      merged = layer;
+      if (null != layerCache && 0 < i && i < last && problems.isEmpty()) {
+        layerCache.put(layers.subList(0, i + 1), merged);
+      }
+    }
+
+    if (last > 0) {
+      metrics.count(InjectionMetrics.LAYERS, layers.size());
+      metrics.count(InjectionMetrics.CACHED_LAYERS, layers.size() - readers.size());
+    }
+    if (null != ahead) {
+      metrics.count(InjectionMetrics.READ_AHEAD_LAYERS, readAhead);
+    }
+    return merged;
+  }
+
+  /**
+   * Run the readers, each keeps its parsed layer and problems.
+   *
+   * @return the parsed layers in the order of the readers
+   */
+  private List<Settings> readLayers(final List<LayerReader> readers, final int threads) {
+    final List<Settings> layers = new ArrayList<Settings>(readers.size());
+    if (threads <= 1 || readers.size() <= 1) {
+      for (final LayerReader reader : readers) {
+        layers.add(reader.call());
+      }
+      return layers;
+    }
+
+    final ExecutorService executor =
+        Executors.newFixedThreadPool(Math.min(threads, readers.size()));
+    try {
+      final List<Future<Settings>> futures = executor.invokeAll(readers);
+      for (final Future<Settings> future : futures) {
+        layers.add(future.get());
+      }
+    } catch (final InterruptedException err) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while reading the project settings", err);
+    } catch (final ExecutionException err) {
+      throw new IllegalStateException("Failed to read the project settings", err.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+    return layers;
+  }
+
+  /**
+   * @param concurrent if true, start the task on a daemon thread, otherwise it is run by {@link
+   *     #join}
+   */
+  private static <T> FutureTask<T> fork(final Callable<T> callable, final boolean concurrent) {
+    final FutureTask<T> task = new FutureTask<T>(callable);
+    if (concurrent) {
+      final Thread thread = new Thread(task, "project-settings-read");
+      thread.setDaemon(true);
+      thread.start();
+    }
+    return task;
+  }
+
+  /**
+   * Run the task here if not started yet, then wait for it.
+   *
+   * @return the result of the task
+   */
+  private static <T> T join(final FutureTask<T> task) throws ExecutionException {
+    task.run();
+    try {
+      return task.get();
+    } catch (final InterruptedException err) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while reading the settings", err);
+    }
+  }
+
+  /**
+   * @param files the number of the project settings files
+   * @return the threads set by the user, otherwise 1 for a single project settings file, so the
+   *     common build never starts any thread for reading
+   */
+  private int getReadThreads(final SettingsBuildingRequest request, final int files) {
+    final String threads = getProperty(request, PROJECT_SETTINGS_READ_THREADS_KEY);
+    if (null == threads) {
+      return files > 1 ? DEFAULT_READ_THREADS : 1;
+    }
+    try {
+      return Math.max(1, Integer.parseInt(threads));
+    } catch (final NumberFormatException err) {
+      logger.warn("Invalid " + PROJECT_SETTINGS_READ_THREADS_KEY + ", read in one thread.");
+      return 1;
+    }
+  }
+
+  private void merge(
+      final Settings projectSettings, final Settings recessive, final InjectionMetrics metrics) {
+    final long start = InjectionMetrics.start();
+    final Object event = flightEvents.beginMerge();
+    settingsMerger.merge(projectSettings, recessive, TrackableBase.USER_LEVEL);
+    final int servers = projectSettings.getServers().size();
+    final int mirrors = projectSettings.getMirrors().size();
+    final int profiles = projectSettings.getProfiles().size();
+    flightEvents.commitMerge(event, servers, mirrors, profiles);
+    metrics.stop(Phase.MERGE, start);
+    metrics.count(InjectionMetrics.SERVERS, servers);
+    metrics.count(InjectionMetrics.MIRRORS, mirrors);
+    metrics.count(InjectionMetrics.PROFILES, profiles);
+  }
+
+  private static byte[] readFully(final Source source) throws IOException {
+    try (InputStream in = source.getInputStream()) {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream(1024 * 8);
+      final byte[] buffer = new byte[1024 * 8];
+      for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+        out.write(buffer, 0, n);
+      }
+      return out.toByteArray();
+    }
+  }
+
+  @SuppressWarnings("deprecation")
+  private org.apache.maven.settings.building.StringSettingsSource writeSettings(
+      final Settings settings, final String location) {
+    final StringWriter writer = new StringWriter(1024 * 4);
+
+    try {
+      settingsWriter.write(writer, null, settings);
+      return newStringSettingsSource(writer.toString(), location);
+    } catch (final IOException err) {
+      throw new IllegalStateException("Failed to serialize settings to memory", err);
+    }
+  }
+
+  @SuppressWarnings("deprecation")
+  private org.apache.maven.settings.building.StringSettingsSource newStringSettingsSource(
+      final String content, final String location) {
+    return new org.apache.maven.settings.building.StringSettingsSource(content, location);
+  }
+
+  static String getProperty(final Properties fromProperties, final String key) {
+    return getProperty(fromProperties, key, null);
+  }
+
+  static String getProperty(final Properties fromProperties, final String key, final String def) {
+    return null == fromProperties ? null : fromProperties.getProperty(key, def);
+  }
+
+  static String getProperty(final SettingsBuildingRequest fromRequest, final String key) {
+    return getProperty(fromRequest, key, null);
+  }
+
+  static String getProperty(
+      final SettingsBuildingRequest fromRequest, final String key, final String def) {
+    String val = getProperty(fromRequest.getUserProperties(), key);
+    return null != val ? val : getProperty(fromRequest.getSystemProperties(), key, def);
+  }
+
+  /**
+   * Reads one project settings layer from its snapshot if any, or parses it and collects the
+   * problems of it.
+   */
+  private final class LayerReader implements Callable<Settings> {
+    private final SourceFingerprint layer;
+    private final SettingsBuildingRequest interpolation;
+    private final SettingsSnapshot snapshot;
+    private final InjectionMetrics metrics;
+    private final List<SettingsProblem> problems = new ArrayList<SettingsProblem>();
+    private Settings settings = null;
+
+    private LayerReader(
+        final SourceFingerprint layer,
+        final SettingsBuildingRequest interpolation,
+        final SettingsSnapshot snapshot,
+        final InjectionMetrics metrics) {
+      this.layer = layer;
+      this.interpolation = interpolation;
+      this.snapshot = snapshot;
+      this.metrics = metrics;
+    }
+
+    @Override
+    public Settings call() {
+      if (null != snapshot) {
+        final long start = InjectionMetrics.start();
+        settings = snapshot.read(layer);
+        metrics.stop(Phase.READ_PROJECT, start);
+        if (null != settings) {
+          metrics.count(InjectionMetrics.SNAPSHOT_HITS, 1);
+          return settings;
+        }
+      }
+
+      if (logger.isDebugEnabled()) {
+        logger.debug("Reading project settings from " + layer.getLocation());
+      }
+      settings =
+          readSettings(layer.getSource(), problems, interpolation, metrics, Phase.READ_PROJECT);
+      // only snapshot clean layers, so that loading a snapshot never hides any problem
+      if (null != snapshot && problems.isEmpty()) {
+        final long start = InjectionMetrics.start();
+        fixServerConfigs(settings);
+        metrics.stop(Phase.FIX_SERVERS, start);
+        snapshot.write(layer, settings);
+      }
+      return settings;
+    }
+  }
+
+  /**
+   * The project settings layers read in the background. The fingerprints are taken before reading,
+   * so a layer changed since is never taken.
+   */
+  private final class ReadAhead implements Callable<List<Settings>> {
+    private final List<LayerReader> readers;
+    private final int threads;
+    private final FutureTask<List<Settings>> task = new FutureTask<List<Settings>>(this);
+
+    private ReadAhead(
+        final List<SourceFingerprint> layers, final SettingsSnapshot snapshot, final int threads) {
+      // the timings of the background reading are not on the critical path of the build
+      final InjectionMetrics metrics = new InjectionMetrics();
+      this.readers = new ArrayList<LayerReader>(layers.size());
+      for (final SourceFingerprint layer : layers) {
+        readers.add(new LayerReader(layer, null, snapshot, metrics));
+      }
+      this.threads = threads;
+    }
+
+    @Override
+    public List<Settings> call() {
+      // pin the digests before reading, to compare with the layers taken later
+      for (final LayerReader reader : readers) {
+        reader.layer.getDigest();
+      }
+      return readLayers(readers, threads);
+    }
+
+    /**
+     * Wait for the reading, which is timed as reading the project settings.
+     *
+     * @return the reader of the layer unchanged since read ahead, or null if not read ahead
+     */
+    private LayerReader take(final SourceFingerprint layer, final InjectionMetrics metrics) {
+      for (final LayerReader reader : readers) {
+        if (layer.getLocation().equals(reader.layer.getLocation())) {
+          final long start = InjectionMetrics.start();
+          try {
+            // the digest read ahead is pinned by then
+            task.get();
+            return layer.isUnchangedSince(reader.layer) ? reader : null;
+          } catch (final InterruptedException err) {
+            Thread.currentThread().interrupt();
+            return null;
+          } catch (final ExecutionException err) {
+            // read again on the critical path, which reports any error
+            logger.debug("Failed to read ahead the project settings", err.getCause());
+            return null;
+          } finally {
+            metrics.stop(Phase.READ_PROJECT, start);
+          }
+        }
+      }
+      return null;
+    }
+  }
+
+  /** Effective settings merged from the project settings and the delegate building result. */
+  private static final class MergedSettingsBuildingResult implements SettingsBuildingResult {
+    private final Settings effectiveSettings;
+    private final List<SettingsProblem> problems;
+
+    private MergedSettingsBuildingResult(
+        final Settings effectiveSettings, final List<SettingsProblem> problems) {
+      this.effectiveSettings = effectiveSettings;
+      this.problems = problems;
+    }
+
+    @Override
+    public Settings getEffectiveSettings() {
+      return effectiveSettings;
+    }
+
+    @Override
+    public List<SettingsProblem> getProblems() {
+      return problems;
+    }
+  }
+}
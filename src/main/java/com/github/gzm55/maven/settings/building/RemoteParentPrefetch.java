@@ -0,0 +1,313 @@
+package com.github.gzm55.maven.settings.building;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.apache.maven.RepositoryUtils;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Model;
+import org.apache.maven.model.Parent;
+import org.apache.maven.model.Profile;
+import org.apache.maven.model.io.xpp3.MavenXpp3Reader;
+import org.apache.maven.settings.Repository;
+import org.apache.maven.settings.Settings;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.repository.RepositoryPolicy;
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.resolution.ArtifactResolutionException;
+
+/**
+ * Warm the local repository with the remote parent poms of the reactor before the project models
+ * are built. The reactor poms are scanned for the {@code <parent>} coordinates not provided by the
+ * reactor itself, which are resolved concurrently together with their own parents, so the model
+ * building finds the whole parent chains locally instead of resolving them one level at a time.
+ */
+final class RemoteParentPrefetch {
+
+  private final RepositorySystem repositorySystem;
+  private final RepositorySystemSession session;
+  private final List<RemoteRepository> repositories;
+  private final int threads;
+  private final Logger logger;
+
+  private int fetched = 0;
+  private int failed = 0;
+
+  RemoteParentPrefetch(
+      final RepositorySystem repositorySystem,
+      final RepositorySystemSession session,
+      final List<RemoteRepository> repositories,
+      final int threads,
+      final Logger logger) {
+    this.repositorySystem = repositorySystem;
+    this.session = session;
+    this.repositories = repositories;
+    this.threads = threads;
+    this.logger = logger;
+  }
+
+  /**
+   * @param activeProfiles the ids of the active settings profiles, explicitly, by default or by
+   *     their activations
+   * @return the repositories of the active settings profiles with the mirrors, proxies and
+   *     authentications applied, followed by the other remote repositories of the request
+   */
+  static List<RemoteRepository> getRepositories(
+      final RepositorySystem repositorySystem,
+      final MavenSession session,
+      final Collection<String> activeProfiles) {
+    final Settings settings = session.getSettings();
+    final List<RemoteRepository> settingsRepositories = new ArrayList<RemoteRepository>();
+    for (final org.apache.maven.settings.Profile profile : settings.getProfiles()) {
+      if (!activeProfiles.contains(profile.getId())) {
+        continue;
+      }
+      for (final Repository repository : profile.getRepositories()) {
+        settingsRepositories.add(
+            new RemoteRepository.Builder(
+                    repository.getId(),
+                    null == repository.getLayout() ? "default" : repository.getLayout(),
+                    repository.getUrl())
+                .setReleasePolicy(toPolicy(repository.getReleases()))
+                .setSnapshotPolicy(toPolicy(repository.getSnapshots()))
+                .build());
+      }
+    }
+
+    final List<RemoteRepository> repositories =
+        new ArrayList<RemoteRepository>(
+            repositorySystem.newResolutionRepositories(
+                session.getRepositorySession(), settingsRepositories));
+    final Set<String> ids = new HashSet<String>();
+    for (final RemoteRepository repository : repositories) {
+      ids.add(repository.getId());
+    }
+    for (final RemoteRepository repository :
+        RepositoryUtils.toRepos(session.getRequest().getRemoteRepositories())) {
+      if (ids.add(repository.getId())) {
+        repositories.add(repository);
+      }
+    }
+    return repositories;
+  }
+
+  private static RepositoryPolicy toPolicy(
+      final org.apache.maven.settings.RepositoryPolicy policy) {
+    if (null == policy) {
+      return new RepositoryPolicy();
+    }
+    // the same defaults as maven for the absent policies
+    return new RepositoryPolicy(
+        policy.isEnabled(),
+        isBlank(policy.getUpdatePolicy())
+            ? RepositoryPolicy.UPDATE_POLICY_DAILY
+            : policy.getUpdatePolicy(),
+        isBlank(policy.getChecksumPolicy())
+            ? RepositoryPolicy.CHECKSUM_POLICY_WARN
+            : policy.getChecksumPolicy());
+  }
+
+  private static boolean isBlank(final String s) {
+    return null == s || s.trim().isEmpty();
+  }
+
+  /**
+   * @param pom the top level pom of the reactor
+   * @return the number of resolved parent poms
+   */
+  int prefetch(final File pom) {
+    final long start = System.nanoTime();
+
+    final Map<String, Artifact> parents = new LinkedHashMap<String, Artifact>();
+    final Set<String> reactor = new HashSet<String>();
+    scan(toPomFile(pom.getAbsoluteFile()), new HashSet<File>(), reactor, parents);
+    parents.keySet().removeAll(reactor);
+
+    if (!parents.isEmpty()) {
+      resolve(parents.values());
+    }
+
+    if (logger.isDebugEnabled()) {
+      logger.debug(
+          String.format(
+              "Prefetched %d remote parent poms of %d reactor poms, %d failed, in %d ms",
+              fetched,
+              reactor.size(),
+              failed,
+              TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+    }
+    return fetched;
+  }
+
+  int getFailed() {
+    return failed;
+  }
+
+  /** Collect the coordinates of the reactor poms, and the parents of them. */
+  private void scan(
+      final File pom,
+      final Set<File> scanned,
+      final Set<String> reactor,
+      final Map<String, Artifact> parents) {
+    if (!scanned.add(pom)) {
+      return;
+    }
+    final Model model = readModel(pom);
+    if (null == model) {
+      return;
+    }
+
+    final Parent parent = model.getParent();
+    final String groupId =
+        null != model.getGroupId() || null == parent ? model.getGroupId() : parent.getGroupId();
+    final String version =
+        null != model.getVersion() || null == parent ? model.getVersion() : parent.getVersion();
+    reactor.add(groupId + ':' + model.getArtifactId() + ':' + version);
+
+    final Artifact artifact = toArtifact(parent);
+    if (null != artifact) {
+      parents.put(
+          artifact.getGroupId() + ':' + artifact.getArtifactId() + ':' + artifact.getVersion(),
+          artifact);
+      // a local parent pom may have its own remote parent
+      final File parentPom =
+          toPomFile(
+              new File(
+                  pom.getParentFile(),
+                  null == parent.getRelativePath() ? "../pom.xml" : parent.getRelativePath()));
+      if (null != parentPom && parentPom.isFile()) {
+        scan(parentPom, scanned, reactor, parents);
+      }
+    }
+
+    final List<String> modules = new ArrayList<String>(model.getModules());
+    for (final Profile profile : model.getProfiles()) {
+      modules.addAll(profile.getModules());
+    }
+    for (final String module : modules) {
+      final File modulePom = toPomFile(new File(pom.getParentFile(), module));
+      if (null != modulePom && modulePom.isFile()) {
+        scan(modulePom, scanned, reactor, parents);
+      }
+    }
+  }
+
+  /** Resolve the parent poms concurrently, following the parent chains of the resolved ones. */
+  private void resolve(final Collection<Artifact> artifacts) {
+    final ExecutorService executor =
+        Executors.newFixedThreadPool(Math.max(1, Math.min(threads, artifacts.size())));
+    try {
+      final CompletionService<Artifact> completion =
+          new ExecutorCompletionService<Artifact>(executor);
+      final Set<String> visited = new HashSet<String>();
+      int pending = 0;
+      for (final Artifact artifact : artifacts) {
+        if (visited.add(artifact.toString())) {
+          completion.submit(newResolver(artifact));
+          ++pending;
+        }
+      }
+      for (; pending > 0; --pending) {
+        final Artifact parent = completion.take().get();
+        if (null != parent && visited.add(parent.toString())) {
+          completion.submit(newResolver(parent));
+          ++pending;
+        }
+      }
+    } catch (final InterruptedException err) {
+      Thread.currentThread().interrupt();
+    } catch (final ExecutionException err) {
+      logger.warn("Failed to prefetch the remote parent poms. {}", err.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * @return a task resolving the pom, and returning its parent to resolve next, or null
+   */
+  private Callable<Artifact> newResolver(final Artifact artifact) {
+    return new Callable<Artifact>() {
+      @Override
+      public Artifact call() {
+        final File file;
+        try {
+          file =
+              repositorySystem
+                  .resolveArtifact(session, new ArtifactRequest(artifact, repositories, null))
+                  .getArtifact()
+                  .getFile();
+        } catch (final ArtifactResolutionException | RuntimeException err) {
+          // leave it to the model building, which reports the error properly
+          synchronized (RemoteParentPrefetch.this) {
+            ++failed;
+          }
+          if (logger.isDebugEnabled()) {
+            logger.debug("Unable to prefetch " + artifact + ": " + err.getMessage());
+          }
+          return null;
+        }
+        synchronized (RemoteParentPrefetch.this) {
+          ++fetched;
+        }
+        final Model model = readModel(file);
+        return null == model ? null : toArtifact(model.getParent());
+      }
+    };
+  }
+
+  /**
+   * @return the pom artifact of the parent, or null if absent or not a plain version
+   */
+  private static Artifact toArtifact(final Parent parent) {
+    if (null == parent
+        || null == parent.getGroupId()
+        || null == parent.getArtifactId()
+        || null == parent.getVersion()
+        || parent.getVersion().contains("${")) {
+      return null;
+    }
+    return new DefaultArtifact(
+        parent.getGroupId(), parent.getArtifactId(), "pom", parent.getVersion());
+  }
+
+  /**
+   * @return the normalized pom file of a module or relative parent path, so each is scanned once
+   */
+  private static File toPomFile(final File file) {
+    final File normalized = file.toPath().normalize().toFile();
+    return normalized.isDirectory() ? new File(normalized, "pom.xml") : normalized;
+  }
+
+  private Model readModel(final File pom) {
+    try (InputStream in = new FileInputStream(pom)) {
+      return new MavenXpp3Reader().read(in, false);
+    } catch (final IOException | XmlPullParserException err) {
+      if (logger.isDebugEnabled()) {
+        logger.debug("Unable to scan " + pom + ": " + err.getMessage());
+      }
+      return null;
+    }
+  }
+}
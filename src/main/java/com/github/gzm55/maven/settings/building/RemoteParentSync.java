@@ -0,0 +1,354 @@
+package com.github.gzm55.maven.settings.building;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.logging.Logger;
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.SyncContext;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.DefaultArtifact;
+
+/**
+ * Make the IDE identify the parent poms downloaded from custom repositories, by removing the {@code
+ * _remote.repositories} and {@code *.pom.lastUpdated} files of them, to mimic the locally installed
+ * artifacts. Each unique remote parent is visited once, and a parent chain is not walked again once
+ * any of its poms is processed.
+ *
+ * <p>The synced parents are recorded in a journal file in the local repository together with the
+ * size and modification time of their pom files, so the next builds skip them until they are
+ * downloaded again. The journal is updated under a file lock, re-reading it first, so the entries
+ * of the concurrent builds sharing the local repository are never lost.
+ *
+ * <p>With a repository session, all the remote parents of a build are removed under one exclusive
+ * resolver sync context, so the concurrent builds sharing the local repository never see a
+ * half-synced parent, nor race with the resolver writing the same files.
+ */
+final class RemoteParentSync {
+
+  static final String JOURNAL_FILENAME = ".project-settings-ide-sync.properties";
+
+  /** The file lock is held by the jvm, so the builds of one jvm are serialized by a monitor. */
+  private static final Object JOURNAL_MONITOR = new Object();
+
+  private final File localRepo;
+  private final int threads;
+  private final boolean useJournal;
+  private final Logger logger;
+  private final RepositorySystem repositorySystem;
+  private final RepositorySystemSession session;
+
+  private final AtomicInteger removedFiles = new AtomicInteger();
+  private int parents = 0;
+  private int skippedParents = 0;
+
+  RemoteParentSync(
+      final File localRepo, final int threads, final boolean useJournal, final Logger logger) {
+    this(localRepo, threads, useJournal, logger, null, null);
+  }
+
+  /**
+   * @param repositorySystem the repository system to lock the parents by, or null to not lock
+   * @param session the repository session of the build, or null to not lock
+   */
+  RemoteParentSync(
+      final File localRepo,
+      final int threads,
+      final boolean useJournal,
+      final Logger logger,
+      final RepositorySystem repositorySystem,
+      final RepositorySystemSession session) {
+    this.localRepo = localRepo;
+    this.threads = threads;
+    this.useJournal = useJournal;
+    this.logger = logger;
+    this.repositorySystem = repositorySystem;
+    this.session = session;
+  }
+
+  /**
+   * @return the number of removed files
+   */
+  int sync(final Collection<MavenProject> projects) {
+    final long start = System.nanoTime();
+
+    final Properties journal = useJournal ? loadJournal() : new Properties();
+    final Set<String> visited = new HashSet<String>();
+    final List<MavenProject> remoteParents = new ArrayList<MavenProject>();
+    final Map<MavenProject, String> stamps = new HashMap<MavenProject, String>();
+    for (final MavenProject p : projects) {
+      for (MavenProject parent = p.getParent(); null != parent; parent = parent.getParent()) {
+        final String gav =
+            parent.getGroupId() + ':' + parent.getArtifactId() + ':' + parent.getVersion();
+        if (!visited.add(gav)) {
+          // the rest of the chain has been walked
+          break;
+        }
+        if (null != parent.getFile()) {
+          // parent is a local pom file
+          continue;
+        }
+        final String stamp = useJournal ? getPomStamp(parent) : null;
+        if (null != stamp && stamp.equals(journal.getProperty(gav))) {
+          // synced before, and not downloaded again
+          ++skippedParents;
+          continue;
+        }
+        remoteParents.add(parent);
+        stamps.put(parent, stamp);
+      }
+    }
+
+    parents = remoteParents.size();
+    final List<MavenProject> synced;
+    if (remoteParents.isEmpty()) {
+      synced = remoteParents;
+    } else if (null != repositorySystem && null != session) {
+      synced = syncLocked(remoteParents);
+    } else {
+      synced = syncAll(remoteParents);
+    }
+
+    if (useJournal) {
+      final Map<String, String> entries = new HashMap<String, String>();
+      for (final MavenProject parent : synced) {
+        final String stamp = stamps.get(parent);
+        if (null != stamp) {
+          entries.put(
+              parent.getGroupId() + ':' + parent.getArtifactId() + ':' + parent.getVersion(),
+              stamp);
+        }
+      }
+      if (!entries.isEmpty()) {
+        updateJournal(entries);
+      }
+    }
+
+    if (logger.isDebugEnabled()) {
+      logger.debug(
+          String.format(
+              "Synced %d remote parent poms of %d projects, skipped %d unchanged, removed %d files in %d ms",
+              remoteParents.size(),
+              projects.size(),
+              skippedParents,
+              removedFiles.get(),
+              TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+    }
+    return removedFiles.get();
+  }
+
+  /**
+   * @return the number of synced remote parent poms
+   */
+  int getParents() {
+    return parents;
+  }
+
+  /**
+   * @return the number of remote parent poms skipped by the journal
+   */
+  int getSkippedParents() {
+    return skippedParents;
+  }
+
+  int getRemovedFiles() {
+    return removedFiles.get();
+  }
+
+  /** Sync the parents in one critical section of the resolver, batching the lock traffic. */
+  private List<MavenProject> syncLocked(final List<MavenProject> remoteParents) {
+    final List<Artifact> artifacts = new ArrayList<Artifact>(remoteParents.size());
+    for (final MavenProject parent : remoteParents) {
+      artifacts.add(
+          new DefaultArtifact(
+              parent.getGroupId(), parent.getArtifactId(), "pom", parent.getVersion()));
+    }
+    try (SyncContext syncContext = repositorySystem.newSyncContext(session, false)) {
+      syncContext.acquire(artifacts, null);
+      return syncAll(remoteParents);
+    } catch (final RuntimeException err) {
+      // e.g. timed out, retried by the next build as nothing is journaled
+      logger.warn("Unable to lock the remote parent poms for IDE, skip syncing them. {}", err);
+      return new ArrayList<MavenProject>();
+    }
+  }
+
+  private List<MavenProject> syncAll(final List<MavenProject> remoteParents) {
+    if (threads > 1 && remoteParents.size() > 1) {
+      return syncParallel(remoteParents);
+    }
+    final List<MavenProject> synced = new ArrayList<MavenProject>(remoteParents.size());
+    for (final MavenProject parent : remoteParents) {
+      if (syncParent(parent)) {
+        synced.add(parent);
+      }
+    }
+    return synced;
+  }
+
+  private List<MavenProject> syncParallel(final List<MavenProject> remoteParents) {
+    final List<MavenProject> synced = new ArrayList<MavenProject>(remoteParents.size());
+    final ExecutorService executor =
+        Executors.newFixedThreadPool(Math.min(threads, remoteParents.size()));
+    try {
+      final List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(remoteParents.size());
+      for (final MavenProject parent : remoteParents) {
+        futures.add(
+            executor.submit(
+                new Callable<Boolean>() {
+                  @Override
+                  public Boolean call() {
+                    return syncParent(parent);
+                  }
+                }));
+      }
+      for (int i = 0; i < futures.size(); ++i) {
+        if (futures.get(i).get()) {
+          synced.add(remoteParents.get(i));
+        }
+      }
+    } catch (final InterruptedException err) {
+      Thread.currentThread().interrupt();
+    } catch (final ExecutionException err) {
+      logger.warn("Failed to sync the remote parent poms. {}", err.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+    return synced;
+  }
+
+  /**
+   * @return true if both flag files are absent now
+   */
+  private boolean syncParent(final MavenProject parent) {
+    final Path dir = getVersionDir(parent);
+
+    // remove '_remote.repositories' file to mimic local installed artifact
+    final boolean flagRemoved = delete(dir.resolve("_remote.repositories"));
+
+    // remove '*.lastUpdated' file to clean the local cached status
+    final boolean statusRemoved =
+        delete(
+            dir.resolve(parent.getArtifactId() + "-" + parent.getVersion() + ".pom.lastUpdated"));
+    return flagRemoved && statusRemoved;
+  }
+
+  private Path getVersionDir(final MavenProject parent) {
+    return localRepo
+        .toPath()
+        .resolve(parent.getGroupId().replace('.', File.separatorChar))
+        .resolve(parent.getArtifactId())
+        .resolve(parent.getVersion());
+  }
+
+  /**
+   * @return the size and modification time of the pom file, or null if not available
+   */
+  private String getPomStamp(final MavenProject parent) {
+    final File pom =
+        getVersionDir(parent)
+            .resolve(parent.getArtifactId() + "-" + parent.getVersion() + ".pom")
+            .toFile();
+    final long lastModified = pom.lastModified();
+    return 0L == lastModified ? null : pom.length() + ":" + lastModified;
+  }
+
+  private Properties loadJournal() {
+    final Properties journal = new Properties();
+    final File file = new File(localRepo, JOURNAL_FILENAME);
+    if (file.isFile()) {
+      try (InputStream in = new FileInputStream(file)) {
+        journal.load(in);
+      } catch (final IOException | IllegalArgumentException err) {
+        logger.debug("Ignore the unreadable IDE sync journal " + file.getPath(), err);
+        journal.clear();
+      }
+    }
+    return journal;
+  }
+
+  /** Add the entries to the latest journal, under the lock of it. */
+  private void updateJournal(final Map<String, String> entries) {
+    final File lockFile = new File(localRepo, JOURNAL_FILENAME + ".lock");
+    synchronized (JOURNAL_MONITOR) {
+      try (FileChannel channel =
+              FileChannel.open(
+                  lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+          FileLock lock = channel.lock()) {
+        final Properties journal = loadJournal();
+        journal.putAll(entries);
+        saveJournal(journal);
+      } catch (final IOException | OverlappingFileLockException | SecurityException err) {
+        // the parents are synced again by the next build
+        logger.debug("Unable to lock the IDE sync journal " + lockFile.getPath(), err);
+      }
+    }
+  }
+
+  private void saveJournal(final Properties journal) {
+    final File file = new File(localRepo, JOURNAL_FILENAME);
+    try {
+      // replace the journal atomically, so the concurrent builds never read a partial one
+      final File tmp = File.createTempFile(JOURNAL_FILENAME, ".tmp", localRepo);
+      try {
+        try (OutputStream out = new FileOutputStream(tmp)) {
+          journal.store(out, "project-settings-extension synced remote parent poms");
+        }
+        Files.move(
+            tmp.toPath(),
+            file.toPath(),
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(tmp.toPath());
+      }
+    } catch (final IOException | SecurityException err) {
+      logger.debug("Unable to write the IDE sync journal " + file.getPath(), err);
+    }
+  }
+
+  /**
+   * @return true if the file does not exist now
+   */
+  private boolean delete(final Path file) {
+    try {
+      if (Files.deleteIfExists(file)) {
+        removedFiles.incrementAndGet();
+        if (logger.isDebugEnabled()) {
+          logger.debug("Remove " + file);
+        }
+      }
+      return true;
+    } catch (final IOException | SecurityException exception) {
+      logger.warn("Unable to remove " + file + ". {}", exception);
+      return false;
+    }
+  }
+}
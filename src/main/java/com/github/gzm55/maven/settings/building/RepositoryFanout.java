@@ -0,0 +1,299 @@
+package com.github.gzm55.maven.settings.building;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import org.apache.maven.model.Profile;
+import org.apache.maven.model.Repository;
+import org.apache.maven.settings.Mirror;
+import org.eclipse.aether.RepositoryEvent;
+import org.eclipse.aether.repository.ArtifactRepository;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.util.repository.DefaultMirrorSelector;
+
+/**
+ * Records the remote lookups of each repository from the repository events of a build, to find the
+ * repositories which multiply the round trips per artifact without serving anything. The report
+ * lists per repository the lookups, misses, downloaded bytes and time, the repositories which never
+ * served anything, and the unmirrored repositories on one host which a single mirror could
+ * consolidate.
+ */
+final class RepositoryFanout {
+
+  /** The counters of one repository. */
+  private static final class Stats {
+    private final String id;
+    private final String url;
+    private boolean declared = false;
+    private final List<String> mirrorOf = new ArrayList<String>();
+    private long lookups = 0L;
+    private long hits = 0L;
+    private long misses = 0L;
+    private long bytes = 0L;
+    private long nanos = 0L;
+
+    Stats(final String id, final String url) {
+      this.id = id;
+      this.url = url;
+    }
+  }
+
+  private final Map<String, Stats> repositories = new LinkedHashMap<String, Stats>();
+  private final Map<String, Long> pending = new HashMap<String, Long>();
+  private final Set<String> mirrored = new HashSet<String>();
+
+  /**
+   * Declare the repositories of the active settings profiles, so the ones never looked up are
+   * reported too.
+   *
+   * @param profiles the profiles of the effective settings
+   * @param activeProfiles the ids of the active profiles, explicitly, by default or by their
+   *     activations
+   * @param mirrors the mirrors of the effective settings
+   */
+  synchronized void declare(
+      final List<Profile> profiles, final List<String> activeProfiles, final List<Mirror> mirrors) {
+    final DefaultMirrorSelector selector = new DefaultMirrorSelector();
+    for (final Mirror mirror : mirrors) {
+      selector.add(
+          mirror.getId(),
+          mirror.getUrl(),
+          mirror.getLayout(),
+          false,
+          mirror.getMirrorOf(),
+          mirror.getMirrorOfLayouts());
+    }
+    for (final Profile profile : profiles) {
+      if (!activeProfiles.contains(profile.getId())) {
+        continue;
+      }
+      final List<Repository> declared = new ArrayList<Repository>(profile.getRepositories());
+      declared.addAll(profile.getPluginRepositories());
+      for (final Repository repository : declared) {
+        final RemoteRepository remote =
+            new RemoteRepository.Builder(
+                    repository.getId(),
+                    null == repository.getLayout() ? "default" : repository.getLayout(),
+                    repository.getUrl())
+                .build();
+        final RemoteRepository mirror = selector.getMirror(remote);
+        if (null != mirror) {
+          final Stats stats = getStats(mirror);
+          if (mirrored.add(repository.getId())) {
+            stats.mirrorOf.add(repository.getId());
+          }
+          stats.declared = true;
+        } else {
+          getStats(remote).declared = true;
+        }
+      }
+    }
+  }
+
+  synchronized void onEvent(final RepositoryEvent event) {
+    final ArtifactRepository repository = event.getRepository();
+    if (!(repository instanceof RemoteRepository)) {
+      return;
+    }
+    final RemoteRepository remote = (RemoteRepository) repository;
+    final String key =
+        remote.getId()
+            + '|'
+            + (null != event.getArtifact() ? event.getArtifact() : event.getMetadata());
+    final RepositoryEvent.EventType type = event.getType();
+    if (RepositoryEvent.EventType.ARTIFACT_DOWNLOADING == type
+        || RepositoryEvent.EventType.METADATA_DOWNLOADING == type) {
+      final Stats stats = getStats(remote);
+      for (final RemoteRepository origin : remote.getMirroredRepositories()) {
+        if (mirrored.add(origin.getId())) {
+          stats.mirrorOf.add(origin.getId());
+        }
+      }
+      ++stats.lookups;
+      pending.put(key, System.nanoTime());
+    } else if (RepositoryEvent.EventType.ARTIFACT_DOWNLOADED == type
+        || RepositoryEvent.EventType.METADATA_DOWNLOADED == type) {
+      final Stats stats = getStats(remote);
+      final Long start = pending.remove(key);
+      if (null != start) {
+        stats.nanos += System.nanoTime() - start;
+      }
+      if (null != event.getException()) {
+        ++stats.misses;
+      } else {
+        ++stats.hits;
+        if (null != event.getFile() && event.getFile().isFile()) {
+          stats.bytes += event.getFile().length();
+        }
+      }
+    }
+  }
+
+  private Stats getStats(final RemoteRepository repository) {
+    Stats stats = repositories.get(repository.getId());
+    if (null == stats) {
+      stats = new Stats(repository.getId(), repository.getUrl());
+      repositories.put(repository.getId(), stats);
+    }
+    return stats;
+  }
+
+  /**
+   * @return the ids of the repositories which served nothing, excluding the mirrored ones
+   */
+  synchronized List<String> getNeverServed() {
+    final List<String> ids = new ArrayList<String>();
+    for (final Stats stats : repositories.values()) {
+      if (0L == stats.hits && !mirrored.contains(stats.id)) {
+        ids.add(stats.id);
+      }
+    }
+    return ids;
+  }
+
+  /**
+   * @return the ids of the unmirrored repositories by host, for the hosts serving more than one
+   */
+  synchronized Map<String, List<String>> getConsolidations() {
+    final Map<String, List<String>> byHost = new TreeMap<String, List<String>>();
+    for (final Stats stats : repositories.values()) {
+      if (!stats.mirrorOf.isEmpty() || mirrored.contains(stats.id)) {
+        continue;
+      }
+      final String host = getHost(stats.url);
+      if (null == host) {
+        continue;
+      }
+      List<String> ids = byHost.get(host);
+      if (null == ids) {
+        ids = new ArrayList<String>();
+        byHost.put(host, ids);
+      }
+      ids.add(stats.id);
+    }
+    final Map<String, List<String>> consolidations = new TreeMap<String, List<String>>();
+    for (final Map.Entry<String, List<String>> entry : byHost.entrySet()) {
+      if (entry.getValue().size() > 1) {
+        consolidations.put(entry.getKey(), entry.getValue());
+      }
+    }
+    return consolidations;
+  }
+
+  private static String getHost(final String url) {
+    if (null == url) {
+      return null;
+    }
+    try {
+      final URI uri = new URI(url);
+      if (null == uri.getHost()) {
+        return null;
+      }
+      return uri.getPort() < 0 ? uri.getHost() : uri.getHost() + ':' + uri.getPort();
+    } catch (final URISyntaxException err) {
+      return null;
+    }
+  }
+
+  /**
+   * @return one line of the lookups and misses of all repositories
+   */
+  synchronized String summary() {
+    long lookups = 0L;
+    long misses = 0L;
+    for (final Stats stats : repositories.values()) {
+      lookups += stats.lookups;
+      misses += stats.misses;
+    }
+    return "Repository fan-out: "
+        + lookups
+        + " lookups, "
+        + misses
+        + " misses over "
+        + repositories.size()
+        + " repositories, "
+        + getNeverServed().size()
+        + " never served";
+  }
+
+  synchronized String toJson() {
+    final StringBuilder sb = new StringBuilder("{\n  \"repositories\": [");
+    String sep = "";
+    for (final Stats stats : repositories.values()) {
+      sb.append(sep).append("\n    {\"id\": ").append(quote(stats.id));
+      sb.append(", \"url\": ").append(quote(stats.url));
+      sb.append(", \"declared\": ").append(stats.declared);
+      sb.append(", \"mirrorOf\": ").append(toJson(stats.mirrorOf));
+      sb.append(", \"lookups\": ").append(stats.lookups);
+      sb.append(", \"hits\": ").append(stats.hits);
+      sb.append(", \"misses\": ").append(stats.misses);
+      sb.append(", \"bytes\": ").append(stats.bytes);
+      sb.append(", \"millis\": ").append(TimeUnit.NANOSECONDS.toMillis(stats.nanos));
+      sb.append('}');
+      sep = ",";
+    }
+    sb.append(sep.isEmpty() ? "]" : "\n  ]");
+    sb.append(",\n  \"neverServed\": ").append(toJson(getNeverServed()));
+    sb.append(",\n  \"consolidate\": {");
+    sep = "";
+    for (final Map.Entry<String, List<String>> entry : getConsolidations().entrySet()) {
+      sb.append(sep).append("\n    ").append(quote(entry.getKey())).append(": ");
+      sb.append(toJson(entry.getValue()));
+      sep = ",";
+    }
+    return sb.append(sep.isEmpty() ? "}" : "\n  }").append("\n}\n").toString();
+  }
+
+  void writeJson(final File file) throws IOException {
+    final File dir = file.getAbsoluteFile().getParentFile();
+    if (null != dir && !dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Unable to create " + dir.getPath());
+    }
+    try (Writer writer =
+        new OutputStreamWriter(new FileOutputStream(file), Charset.forName("UTF-8"))) {
+      writer.write(toJson());
+    }
+  }
+
+  private static String toJson(final List<String> values) {
+    final StringBuilder sb = new StringBuilder("[");
+    String sep = "";
+    for (final String value : values) {
+      sb.append(sep).append(quote(value));
+      sep = ", ";
+    }
+    return sb.append(']').toString();
+  }
+
+  private static String quote(final String s) {
+    if (null == s) {
+      return "null";
+    }
+    final StringBuilder sb = new StringBuilder("\"");
+    for (int i = 0; i < s.length(); ++i) {
+      final char c = s.charAt(i);
+      if ('"' == c || '\\' == c) {
+        sb.append('\\').append(c);
+      } else if (c < 0x20) {
+        sb.append(String.format("\\u%04x", (int) c));
+      } else {
+        sb.append(c);
+      }
+    }
+    return sb.append('"').toString();
+  }
+}
@@ -0,0 +1,272 @@
+package com.github.gzm55.maven.settings.building;
+
+import com.github.gzm55.maven.settings.merge.ProjectSettingsMerger;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import org.apache.maven.execution.MavenExecutionRequest;
+import org.apache.maven.model.Profile;
+import org.apache.maven.model.Repository;
+import org.apache.maven.settings.Mirror;
+import org.codehaus.plexus.logging.Logger;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.util.repository.DefaultMirrorSelector;
+
+/**
+ * Routes the artifacts to the repositories serving them, by the groupId prefixes declared by the
+ * settings profile {@value ProjectSettingsMerger#ROUTING_PROFILE_ID}, one property per repository
+ * id:
+ *
+ * <pre>
+ * &lt;profile&gt;
+ *   &lt;id&gt;project-settings-routing&lt;/id&gt;
+ *   &lt;properties&gt;
+ *     &lt;corp-releases&gt;com.acme, org.acme&lt;/corp-releases&gt;
+ *     &lt;corp-thirdparty&gt;com.vendor&lt;/corp-thirdparty&gt;
+ *   &lt;/properties&gt;
+ * &lt;/profile&gt;
+ * </pre>
+ *
+ * <p>The prefixes are written as the prefix files of the remote repository filter of the maven 3.9+
+ * resolver, which then requests an artifact only from the routed repositories whose prefixes match
+ * it, and from the repositories without any route. The files are generated under the cache
+ * directory of the project, so the routes of a project never leak into the others sharing the same
+ * local repository. The older maven has no repository filter, and resolves as if no route is
+ * declared.
+ *
+ * <p>The resolver filters the repositories after the mirrors are applied, so a route keyed by the
+ * id of a mirrored repository, e.g. behind a {@code mirrorOf=*} mirror of the user settings,
+ * matches nothing and is silently ignored. Such routes are logged at debug, to be keyed by the
+ * mirror id.
+ */
+final class RepositoryRouting {
+
+  static final String PREFIXES_KEY = "aether.remoteRepositoryFilter.prefixes";
+  static final String PREFIXES_BASEDIR_KEY = "aether.remoteRepositoryFilter.prefixes.basedir";
+
+  private static final String PREFIXES_FILE_PREFIX = "prefixes-";
+  private static final String PREFIXES_FILE_SUFFIX = ".txt";
+  private static final String PREFIXES_HEADER =
+      "## repository-prefixes/2.0\n# generated by project-settings-extension\n";
+
+  private final File baseDir;
+  private final Logger logger;
+
+  /**
+   * @param baseDir the directory to generate the prefix files in
+   */
+  RepositoryRouting(final File baseDir, final Logger logger) {
+    this.baseDir = baseDir;
+    this.logger = logger;
+  }
+
+  /**
+   * @param filterSupported true on maven 3.9+, whose resolver supports the repository filters
+   * @return the number of routed repositories
+   */
+  int apply(final MavenExecutionRequest request, final boolean filterSupported) {
+    final Map<String, String> routes = getRoutes(request);
+    if (routes.isEmpty()) {
+      return 0;
+    }
+    if (!filterSupported) {
+      logger.debug("The repository routes need maven 3.9+, resolve without them.");
+      return 0;
+    }
+
+    final Properties userProps = request.getUserProperties();
+    final Properties sysProps = request.getSystemProperties();
+    final String enabled = userProps.getProperty(PREFIXES_KEY, sysProps.getProperty(PREFIXES_KEY));
+    if (null != userProps.getProperty(PREFIXES_BASEDIR_KEY)
+        || null != sysProps.getProperty(PREFIXES_BASEDIR_KEY)
+        || "false".equals(enabled)) {
+      logger.debug("The prefixes repository filter is configured explicitly, skip the routes.");
+      return 0;
+    }
+
+    if (!baseDir.isDirectory() && !baseDir.mkdirs() && !baseDir.isDirectory()) {
+      logger.warn("Skip the repository routes, unable to create " + baseDir.getPath());
+      return 0;
+    }
+    removeStaleFiles(routes);
+    for (final Map.Entry<String, String> route : routes.entrySet()) {
+      try {
+        writeIfChanged(
+            new File(baseDir, PREFIXES_FILE_PREFIX + route.getKey() + PREFIXES_FILE_SUFFIX),
+            route.getValue());
+      } catch (final IOException | SecurityException err) {
+        logger.warn("Skip the repository routes, unable to write " + baseDir.getPath(), err);
+        return 0;
+      }
+    }
+
+    userProps.setProperty(PREFIXES_KEY, "true");
+    userProps.setProperty(PREFIXES_BASEDIR_KEY, baseDir.getAbsolutePath());
+    if (logger.isDebugEnabled()) {
+      logger.debug("Route the artifacts of " + routes.size() + " repositories by " + baseDir);
+      for (final Map.Entry<String, String> mirrored :
+          getMirrored(request, routes.keySet()).entrySet()) {
+        logger.debug(
+            "The routes of repository "
+                + mirrored.getKey()
+                + " are ignored, it is mirrored by "
+                + mirrored.getValue()
+                + ", route by the mirror id instead.");
+      }
+    }
+    return routes.size();
+  }
+
+  /**
+   * @return the content of the prefix file by repository id
+   */
+  private Map<String, String> getRoutes(final MavenExecutionRequest request) {
+    final Map<String, String> routes = new TreeMap<String, String>();
+    for (final Profile profile : request.getProfiles()) {
+      if (!ProjectSettingsMerger.ROUTING_PROFILE_ID.equals(profile.getId())) {
+        continue;
+      }
+      final Properties props = profile.getProperties();
+      for (final String repositoryId : props.stringPropertyNames()) {
+        final StringBuilder sb = new StringBuilder(PREFIXES_HEADER);
+        for (final String groupId : props.getProperty(repositoryId).split("[,\\s]+")) {
+          final String prefix = toPrefix(groupId);
+          if (null != prefix) {
+            sb.append(prefix).append('\n');
+          } else if (!groupId.isEmpty()) {
+            logger.warn(
+                "Ignore the invalid groupId prefix of repository " + repositoryId + ": " + groupId);
+          }
+        }
+        if (sb.length() > PREFIXES_HEADER.length()) {
+          routes.put(repositoryId, sb.toString());
+        }
+      }
+    }
+    return routes;
+  }
+
+  /**
+   * @param routed the routed repository ids
+   * @return the mirror id by routed repository id, for the routed repositories which are mirrored
+   */
+  static Map<String, String> getMirrored(
+      final MavenExecutionRequest request, final Set<String> routed) {
+    final Map<String, String> mirrored = new TreeMap<String, String>();
+    final Set<String> mirrorIds = new HashSet<String>();
+    final DefaultMirrorSelector selector = new DefaultMirrorSelector();
+    for (final Mirror mirror : request.getMirrors()) {
+      mirrorIds.add(mirror.getId());
+      selector.add(
+          mirror.getId(),
+          mirror.getUrl(),
+          mirror.getLayout(),
+          false,
+          mirror.getMirrorOf(),
+          mirror.getMirrorOfLayouts());
+    }
+    if (mirrorIds.isEmpty()) {
+      return mirrored;
+    }
+
+    // the repositories of the pom are unknown yet, taken as external ones
+    final Map<String, Repository> declared = new HashMap<String, Repository>();
+    for (final Profile profile : request.getProfiles()) {
+      final List<Repository> repositories = new ArrayList<Repository>(profile.getRepositories());
+      repositories.addAll(profile.getPluginRepositories());
+      for (final Repository repository : repositories) {
+        if (!declared.containsKey(repository.getId())) {
+          declared.put(repository.getId(), repository);
+        }
+      }
+    }
+    for (final String repositoryId : routed) {
+      if (mirrorIds.contains(repositoryId)) {
+        continue;
+      }
+      final Repository repository = declared.get(repositoryId);
+      final RemoteRepository mirror =
+          selector.getMirror(
+              new RemoteRepository.Builder(
+                      repositoryId,
+                      null == repository || null == repository.getLayout()
+                          ? "default"
+                          : repository.getLayout(),
+                      null == repository || null == repository.getUrl()
+                          ? "https://" + repositoryId
+                          : repository.getUrl())
+                  .build());
+      if (null != mirror) {
+        mirrored.put(repositoryId, mirror.getId());
+      }
+    }
+    return mirrored;
+  }
+
+  /**
+   * @return the path prefix of the groupId prefix, or null if invalid
+   */
+  static String toPrefix(final String groupId) {
+    String prefix = groupId.trim();
+    if (prefix.endsWith(".*")) {
+      prefix = prefix.substring(0, prefix.length() - 2);
+    }
+    if (prefix.isEmpty() || !prefix.matches("[A-Za-z0-9_\\-]+(\\.[A-Za-z0-9_\\-]+)*")) {
+      return null;
+    }
+    return '/' + prefix.replace('.', '/');
+  }
+
+  /** Remove the prefix files of the repositories not routed any more. */
+  private void removeStaleFiles(final Map<String, String> routes) {
+    final File[] files = baseDir.listFiles();
+    if (null == files) {
+      return;
+    }
+    for (final File file : files) {
+      final String name = file.getName();
+      if (name.startsWith(PREFIXES_FILE_PREFIX)
+          && name.endsWith(PREFIXES_FILE_SUFFIX)
+          && !routes.containsKey(
+              name.substring(
+                  PREFIXES_FILE_PREFIX.length(), name.length() - PREFIXES_FILE_SUFFIX.length()))
+          && !file.delete()) {
+        logger.debug("Unable to remove the stale prefix file " + file);
+      }
+    }
+  }
+
+  /** Publish the file atomically, so the concurrent builds never read a partial one. */
+  private static void writeIfChanged(final File file, final String content) throws IOException {
+    final byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+    if (file.isFile() && Arrays.equals(bytes, Files.readAllBytes(file.toPath()))) {
+      return;
+    }
+    final File tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+    try {
+      try (OutputStream out = new FileOutputStream(tmp)) {
+        out.write(bytes);
+      }
+      Files.move(
+          tmp.toPath(),
+          file.toPath(),
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tmp.toPath());
+    }
+  }
+}
@@ -0,0 +1,206 @@
+package com.github.gzm55.maven.settings.building;
+
+import com.github.gzm55.maven.settings.merge.ProjectSettingsMerger;
+import java.io.File;
+import java.util.Properties;
+import org.apache.maven.execution.MavenExecutionRequest;
+import org.apache.maven.model.Profile;
+import org.codehaus.plexus.logging.Logger;
+
+/**
+ * Applies the resolver performance properties declared by the settings profile {@value
+ * ProjectSettingsMerger#RESOLVER_PROFILE_ID} to the execution request:
+ *
+ * <pre>
+ * &lt;profile&gt;
+ *   &lt;id&gt;project-settings-resolver&lt;/id&gt;
+ *   &lt;properties&gt;
+ *     &lt;threads&gt;10&lt;/threads&gt;
+ *     &lt;connectorThreads&gt;10&lt;/connectorThreads&gt;
+ *     &lt;checksumPolicy&gt;warn&lt;/checksumPolicy&gt;
+ *     &lt;syncContextFactory&gt;file-lock&lt;/syncContextFactory&gt;
+ *   &lt;/properties&gt;
+ * &lt;/profile&gt;
+ * </pre>
+ *
+ * <p>The neutral keys are mapped to the properties read by the resolver of the running maven, and
+ * the keys not supported by it are ignored. Any other {@code aether.*} or {@code maven.artifact.*}
+ * key is passed as is. The {@code skipUpdatesProperty} names a property, e.g. {@code env.CI}, whose
+ * presence skips all the update checks as {@code -nsu}. The {@code localRepositoryTail} chains the
+ * read-only, pre-seeded artifact caches beneath the local repository on maven 3.9+, and the {@code
+ * localMirrors} are checked by {@link LocalMirrors}. The profile needs no activation, and the user
+ * level settings override the project ones key by key when merging. A property given on the command
+ * line, a checksum policy given by {@code -C} or {@code -c}, or the updates forced by {@code -U},
+ * is never overridden.
+ */
+final class ResolverProperties {
+
+  static final String THREADS = "threads";
+  static final String CONNECTOR_THREADS = "connectorThreads";
+  static final String CHECKSUM_POLICY = "checksumPolicy";
+  static final String CHECKSUM_ALGORITHMS = "checksumAlgorithms";
+  static final String SYNC_CONTEXT_FACTORY = "syncContextFactory";
+  static final String SYNC_CONTEXT_NAME_MAPPER = "syncContextNameMapper";
+  static final String SYNC_CONTEXT_TIMEOUT = "syncContextTimeout";
+  static final String SKIP_UPDATES_PROPERTY = "skipUpdatesProperty";
+  static final String LOCAL_REPOSITORY_TAIL = "localRepositoryTail";
+
+  private static final String LOCAL_REPOSITORY_TAIL_KEY = "maven.repo.local.tail";
+
+  /** The neutral key, the key of maven 3.9+ and the key of the older maven, or null. */
+  private static final String[][] KEYS = {
+    {THREADS, "maven.artifact.threads", "maven.artifact.threads"},
+    {CONNECTOR_THREADS, "aether.connector.basic.threads", "aether.connector.basic.threads"},
+    {CHECKSUM_ALGORITHMS, "aether.checksums.algorithms", null},
+    {SYNC_CONTEXT_FACTORY, "aether.syncContext.named.factory", null},
+    {SYNC_CONTEXT_NAME_MAPPER, "aether.syncContext.named.nameMapper", null},
+    {SYNC_CONTEXT_TIMEOUT, "aether.syncContext.named.time", null},
+  };
+
+  private final boolean resolver19;
+  private final Logger logger;
+
+  /**
+   * @param resolver19 true on maven 3.9+, whose resolver supports the checksum algorithms, the
+   *     named lock sync contexts and the local repository tails
+   */
+  ResolverProperties(final boolean resolver19, final Logger logger) {
+    this.resolver19 = resolver19;
+    this.logger = logger;
+  }
+
+  /**
+   * @return the number of properties applied to the request
+   */
+  int apply(final MavenExecutionRequest request) {
+    Profile resolverProfile = null;
+    for (final Profile profile : request.getProfiles()) {
+      if (ProjectSettingsMerger.RESOLVER_PROFILE_ID.equals(profile.getId())) {
+        resolverProfile = profile;
+      }
+    }
+    if (null == resolverProfile) {
+      return 0;
+    }
+
+    final Properties declared = resolverProfile.getProperties();
+    int applied = 0;
+    for (final String key : declared.stringPropertyNames()) {
+      final String value = declared.getProperty(key).trim();
+      if (CHECKSUM_POLICY.equals(key)) {
+        applied += setChecksumPolicy(request, value);
+        continue;
+      } else if (SKIP_UPDATES_PROPERTY.equals(key)) {
+        applied += skipUpdates(request, value);
+        continue;
+      } else if (LOCAL_REPOSITORY_TAIL.equals(key)) {
+        applied += setLocalRepositoryTail(request, value);
+        continue;
+      } else if (ProjectSettingsMerger.UPDATE_POLICY_KEY.equals(key)
+          || LocalMirrors.LOCAL_MIRRORS.equals(key)
+          || LocalMirrors.LOCAL_MIRROR_MARKER.equals(key)) {
+        // applied to the repositories when merging, or to the mirrors
+        continue;
+      }
+
+      String target = null;
+      boolean neutral = false;
+      for (final String[] keys : KEYS) {
+        if (keys[0].equals(key)) {
+          target = resolver19 ? keys[1] : keys[2];
+          neutral = true;
+        }
+      }
+      if (!neutral && (key.startsWith("aether.") || key.startsWith("maven.artifact."))) {
+        target = key;
+      }
+      if (null == target) {
+        logger.debug("Ignore the resolver property unsupported by this maven: " + key);
+        continue;
+      }
+      if (null == request.getUserProperties().getProperty(target)
+          && null == request.getSystemProperties().getProperty(target)) {
+        request.getUserProperties().setProperty(target, value);
+        ++applied;
+        if (logger.isDebugEnabled()) {
+          logger.debug("Apply the resolver property " + target + "=" + value);
+        }
+      }
+    }
+    return applied;
+  }
+
+  /**
+   * Skip all the update checks as {@code -nsu} when the given property, e.g. {@code env.CI}, is
+   * set, unless the updates are forced by {@code -U}.
+   */
+  private int skipUpdates(final MavenExecutionRequest request, final String property) {
+    if (property.isEmpty()
+        || request.isUpdateSnapshots()
+        || request.isNoSnapshotUpdates()
+        || (null == request.getUserProperties().getProperty(property)
+            && null == request.getSystemProperties().getProperty(property))) {
+      return 0;
+    }
+    if (logger.isDebugEnabled()) {
+      logger.debug("Skip the update checks of all repositories, as " + property + " is set");
+    }
+    request.setNoSnapshotUpdates(true);
+    return 1;
+  }
+
+  /**
+   * Chain the existing directories of the comma separated paths, relative to the multi-module
+   * project directory, beneath the local repository as read-only lookup tails, so the artifacts
+   * found there are never downloaded, while the downloads are still written to the local
+   * repository.
+   */
+  private int setLocalRepositoryTail(final MavenExecutionRequest request, final String paths) {
+    if (!resolver19) {
+      logger.debug("The local repository tails need maven 3.9+, ignore " + paths);
+      return 0;
+    }
+    if (null != request.getUserProperties().getProperty(LOCAL_REPOSITORY_TAIL_KEY)
+        || null != request.getSystemProperties().getProperty(LOCAL_REPOSITORY_TAIL_KEY)) {
+      return 0;
+    }
+    final StringBuilder tail = new StringBuilder();
+    for (final String path : paths.split(",")) {
+      if (path.trim().isEmpty()) {
+        continue;
+      }
+      File dir = new File(path.trim());
+      if (!dir.isAbsolute() && null != request.getMultiModuleProjectDirectory()) {
+        dir = new File(request.getMultiModuleProjectDirectory(), path.trim());
+      }
+      if (!dir.isDirectory()) {
+        // e.g. a developer machine without the cache of the CI agent image
+        logger.debug("Skip the absent local repository tail " + dir);
+        continue;
+      }
+      tail.append(0 == tail.length() ? "" : ",").append(dir.getAbsolutePath());
+    }
+    if (0 == tail.length()) {
+      return 0;
+    }
+    request.getUserProperties().setProperty(LOCAL_REPOSITORY_TAIL_KEY, tail.toString());
+    if (logger.isDebugEnabled()) {
+      logger.debug("Apply the resolver property " + LOCAL_REPOSITORY_TAIL_KEY + "=" + tail);
+    }
+    return 1;
+  }
+
+  private int setChecksumPolicy(final MavenExecutionRequest request, final String policy) {
+    if (null != request.getGlobalChecksumPolicy()) {
+      return 0;
+    }
+    if (!MavenExecutionRequest.CHECKSUM_POLICY_FAIL.equals(policy)
+        && !MavenExecutionRequest.CHECKSUM_POLICY_WARN.equals(policy)
+        && !"ignore".equals(policy)) {
+      logger.warn("Ignore the invalid resolver " + CHECKSUM_POLICY + ": " + policy);
+      return 0;
+    }
+    request.setGlobalChecksumPolicy(policy);
+    return 1;
+  }
+}
@@ -0,0 +1,88 @@
+package com.github.gzm55.maven.settings.building;
+
+import java.nio.charset.Charset;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Interpolates the {@code ${...}} expressions in a raw settings content the same way as the maven
+ * settings builder does, by the user properties, the system properties and the environment
+ * variables with the {@code env.} prefix. Interpolating before parsing saves the serializing and
+ * the second parsing done by maven on the parsed settings.
+ */
+final class SettingsInterpolator {
+
+  private static final Pattern EXPRESSION = Pattern.compile("\\$\\{([^}]+)\\}");
+  private static final Pattern XML_ENCODING =
+      Pattern.compile("<\\?xml[^>]*encoding\\s*=\\s*[\"']([A-Za-z0-9._:-]+)[\"']");
+  private static final String ENV_PREFIX = "env.";
+  private static final int MAX_DEPTH = 8;
+
+  private SettingsInterpolator() {}
+
+  static byte[] interpolate(
+      final byte[] bytes, final Properties userProperties, final Properties systemProperties) {
+    final Charset charset = detectCharset(bytes);
+    final String content = new String(bytes, charset);
+    final String interpolated = interpolate(content, userProperties, systemProperties, 0);
+    return interpolated == content ? bytes : interpolated.getBytes(charset);
+  }
+
+  static String interpolate(
+      final String content,
+      final Properties userProperties,
+      final Properties systemProperties,
+      final int depth) {
+    if (depth > MAX_DEPTH || content.indexOf("${") < 0) {
+      return content;
+    }
+    final Matcher matcher = EXPRESSION.matcher(content);
+    final StringBuffer sb = new StringBuffer(content.length());
+    while (matcher.find()) {
+      final String value = lookup(matcher.group(1), userProperties, systemProperties);
+      final String replacement =
+          null == value
+              ? matcher.group()
+              : escapeXml(interpolate(value, userProperties, systemProperties, depth + 1));
+      matcher.appendReplacement(sb, Matcher.quoteReplacement(replacement));
+    }
+    matcher.appendTail(sb);
+    return sb.toString();
+  }
+
+  private static String lookup(
+      final String expression, final Properties userProperties, final Properties systemProperties) {
+    String value = null == userProperties ? null : userProperties.getProperty(expression);
+    if (null == value && null != systemProperties) {
+      value = systemProperties.getProperty(expression);
+    }
+    if (null == value && expression.startsWith(ENV_PREFIX)) {
+      value = System.getenv(expression.substring(ENV_PREFIX.length()));
+    }
+    return value;
+  }
+
+  private static String escapeXml(final String value) {
+    return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+  }
+
+  private static Charset detectCharset(final byte[] bytes) {
+    if (bytes.length >= 2
+        && ((bytes[0] == (byte) 0xFE && bytes[1] == (byte) 0xFF)
+            || (bytes[0] == (byte) 0xFF && bytes[1] == (byte) 0xFE))) {
+      return Charset.forName("UTF-16");
+    }
+    final Matcher matcher =
+        XML_ENCODING.matcher(
+            new String(bytes, 0, Math.min(bytes.length, 256), Charset.forName("ISO-8859-1")));
+    if (matcher.find()) {
+      try {
+        return Charset.forName(matcher.group(1));
+      } catch (final IllegalArgumentException err) {
+        // unknown encoding, let the parser report it
+      }
+    }
+    return Charset.forName("UTF-8");
+  }
+}
@@ -0,0 +1,105 @@
+package com.github.gzm55.maven.settings.building;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.maven.settings.Settings;
+import org.codehaus.plexus.logging.Logger;
+
+/**
+ * Process wide cache of the parsed and merged layers of the project settings. The sibling subtrees
+ * of a monorepo share the same upper layers, so a build only merges the layers below the longest
+ * unchanged cached chain, and a chain of one file caches a parsed layer or settings fragment, so
+ * only the changed files are read again. Entries are keyed by the locations of the chain, validated
+ * by the stamps and the digests of all its files, and evicted in LRU order.
+ */
+final class SettingsLayerCache {
+
+  static final int DEFAULT_MAX_ENTRIES = 128;
+
+  private static final SettingsLayerCache INSTANCE = new SettingsLayerCache(DEFAULT_MAX_ENTRIES);
+
+  private final Map<String, Entry> entries;
+
+  SettingsLayerCache(final int maxEntries) {
+    this.entries =
+        new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+          private static final long serialVersionUID = 1L;
+
+          @Override
+          protected boolean removeEldestEntry(
+              final Map.Entry<String, SettingsLayerCache.Entry> eldest) {
+            return size() > maxEntries;
+          }
+        };
+  }
+
+  static SettingsLayerCache getInstance() {
+    return INSTANCE;
+  }
+
+  /** The merged settings of a chain of layers, outermost first. */
+  private static final class Entry {
+    private final Settings settings;
+    private final List<SourceFingerprint> layers;
+
+    private Entry(final Settings settings, final List<SourceFingerprint> layers) {
+      this.settings = settings;
+      this.layers = layers;
+    }
+  }
+
+  private static String newKey(final List<SourceFingerprint> layers) {
+    final StringBuilder sb = new StringBuilder();
+    for (final SourceFingerprint layer : layers) {
+      sb.append(layer.getLocation()).append('\n');
+    }
+    return sb.toString();
+  }
+
+  /**
+   * @param layers the chain of layers, outermost first
+   * @return a copy of the merged settings of the chain, or null when absent or any layer changed
+   */
+  synchronized Settings get(final List<SourceFingerprint> layers, final Logger logger) {
+    final String key = newKey(layers);
+    final Entry entry = entries.get(key);
+    if (null == entry) {
+      return null;
+    }
+    for (int i = 0; i < layers.size(); ++i) {
+      if (!layers.get(i).isUnchangedSince(entry.layers.get(i))) {
+        entries.remove(key);
+        if (logger.isDebugEnabled()) {
+          logger.debug(
+              "Project settings layer cache invalidated, changed " + layers.get(i).getLocation());
+        }
+        return null;
+      }
+    }
+    if (logger.isDebugEnabled()) {
+      logger.debug("Project settings layer cache hit " + layers.size() + " layers");
+    }
+    return entry.settings.clone();
+  }
+
+  /**
+   * @param layers the chain of file layers, outermost first
+   * @param settings the merged settings of the chain, which is copied
+   */
+  synchronized void put(final List<SourceFingerprint> layers, final Settings settings) {
+    // pin the digests to compare with
+    for (final SourceFingerprint layer : layers) {
+      if (!layer.hasStamp() || null == layer.getDigest()) {
+        return;
+      }
+    }
+    entries.put(
+        newKey(layers), new Entry(settings.clone(), new ArrayList<SourceFingerprint>(layers)));
+  }
+
+  synchronized int size() {
+    return entries.size();
+  }
+}
@@ -0,0 +1,163 @@
+package com.github.gzm55.maven.settings.building;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.codehaus.plexus.logging.Logger;
+
+/**
+ * Process wide cache of the merged settings, which helps the long-lived JVMs, e.g. maven daemon or
+ * IDE embedders, to skip all the XML work on warm builds. Entries are keyed by the multi-module
+ * project directory and the injected settings, validated by the stamps and the digests of the
+ * sources on each lookup, and evicted in LRU order when too many projects share one JVM.
+ */
+final class SettingsMemoryCache {
+
+  static final int DEFAULT_MAX_ENTRIES = 32;
+
+  private static final SettingsMemoryCache INSTANCE = new SettingsMemoryCache(DEFAULT_MAX_ENTRIES);
+
+  private final Map<String, Entry> entries;
+
+  SettingsMemoryCache(final int maxEntries) {
+    this.entries =
+        new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+          private static final long serialVersionUID = 1L;
+
+          @Override
+          protected boolean removeEldestEntry(
+              final Map.Entry<String, SettingsMemoryCache.Entry> eldest) {
+            return size() > maxEntries;
+          }
+        };
+  }
+
+  static SettingsMemoryCache getInstance() {
+    return INSTANCE;
+  }
+
+  /** A merged settings together with the fingerprints of its sources. */
+  static final class Entry {
+    private final String settings;
+    private final String localRepository;
+    private final SourceFingerprint project;
+    private final List<SourceFingerprint> layers;
+    private final SourceFingerprint inject;
+
+    Entry(
+        final String settings,
+        final String localRepository,
+        final SourceFingerprint project,
+        final SourceFingerprint inject) {
+      this(settings, localRepository, project, Collections.<SourceFingerprint>emptyList(), inject);
+    }
+
+    /**
+     * @param layers the outer layers of the cascaded project settings
+     */
+    Entry(
+        final String settings,
+        final String localRepository,
+        final SourceFingerprint project,
+        final List<SourceFingerprint> layers,
+        final SourceFingerprint inject) {
+      this.settings = settings;
+      this.localRepository = localRepository;
+      this.project = project;
+      this.layers = layers;
+      this.inject = inject;
+    }
+
+    String getSettings() {
+      return settings;
+    }
+
+    String getLocalRepository() {
+      return localRepository;
+    }
+  }
+
+  static String newKey(
+      final String projectDirectory,
+      final String target,
+      final List<SourceFingerprint> layers,
+      final SourceFingerprint inject) {
+    final StringBuilder sb = new StringBuilder(projectDirectory).append('\n').append(target);
+    for (final SourceFingerprint layer : layers) {
+      sb.append('\n').append(layer.getLocation());
+    }
+    return sb.append('\n').append(null == inject ? "" : inject.getLocation()).toString();
+  }
+
+  /**
+   * @return the cached entry, or null when absent or any source changed
+   */
+  synchronized Entry get(
+      final String key,
+      final SourceFingerprint project,
+      final SourceFingerprint inject,
+      final Logger logger) {
+    return get(key, project, Collections.<SourceFingerprint>emptyList(), inject, logger);
+  }
+
+  /**
+   * @param layers the outer layers of the cascaded project settings, which are a part of the key
+   * @return the cached entry, or null when absent or any source changed
+   */
+  synchronized Entry get(
+      final String key,
+      final SourceFingerprint project,
+      final List<SourceFingerprint> layers,
+      final SourceFingerprint inject,
+      final Logger logger) {
+    final Entry entry = entries.get(key);
+    if (null == entry) {
+      logger.debug("Project settings memory cache miss");
+      return null;
+    }
+    if (!project.isUnchangedSince(entry.project)
+        || !isUnchangedSince(layers, entry.layers)
+        || (null == inject) != (null == entry.inject)
+        || (null != inject && !inject.isUnchangedSince(entry.inject))) {
+      entries.remove(key);
+      logger.debug("Project settings memory cache invalidated, sources changed");
+      return null;
+    }
+    logger.debug("Project settings memory cache hit");
+    return entry;
+  }
+
+  private static boolean isUnchangedSince(
+      final List<SourceFingerprint> layers, final List<SourceFingerprint> earlier) {
+    if (layers.size() != earlier.size()) {
+      return false;
+    }
+    for (int i = 0; i < layers.size(); ++i) {
+      if (!layers.get(i).isUnchangedSince(earlier.get(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  synchronized void put(final String key, final Entry entry) {
+    // pin the digests to compare with, an unreadable source can never be validated
+    final List<SourceFingerprint> fingerprints = new ArrayList<SourceFingerprint>(entry.layers);
+    fingerprints.add(entry.project);
+    if (null != entry.inject) {
+      fingerprints.add(entry.inject);
+    }
+    for (final SourceFingerprint fingerprint : fingerprints) {
+      if (null == fingerprint.getDigest()) {
+        return;
+      }
+    }
+    entries.put(key, entry);
+  }
+
+  synchronized int size() {
+    return entries.size();
+  }
+}
@@ -0,0 +1,465 @@
+package com.github.gzm55.maven.settings.building;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import org.apache.maven.settings.Activation;
+import org.apache.maven.settings.ActivationFile;
+import org.apache.maven.settings.ActivationOS;
+import org.apache.maven.settings.ActivationProperty;
+import org.apache.maven.settings.Mirror;
+import org.apache.maven.settings.Profile;
+import org.apache.maven.settings.Proxy;
+import org.apache.maven.settings.Repository;
+import org.apache.maven.settings.RepositoryPolicy;
+import org.apache.maven.settings.Server;
+import org.apache.maven.settings.Settings;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+
+/**
+ * Compact binary snapshots of the parsed, validated and fixed project settings files, which are
+ * decoded by plain {@link DataInputStream} reads instead of parsing the XML again. A snapshot
+ * records the running maven version and the digest of its source file. It is used only when both
+ * still match, as an equal size and modification time never prove the file unchanged, otherwise the
+ * source is parsed as usual and the snapshot is written again.
+ *
+ * <p>The snapshot covers the fields of the settings model 1.2.0, which is complete since maven
+ * 3.8.1.
+ */
+final class SettingsSnapshot {
+
+  static final String SUPPORTED_MAVEN_VERSIONS = "[3.8.1,3.99)";
+
+  private static final int MAGIC = 0x50535353; // "PSSS"
+  private static final int FORMAT_VERSION = 2;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final String SUFFIX = ".snapshot";
+
+  private final File snapshotDir;
+  private final String mavenVersion;
+  private final Logger logger;
+
+  SettingsSnapshot(final File snapshotDir, final String mavenVersion, final Logger logger) {
+    this.snapshotDir = snapshotDir;
+    this.mavenVersion = mavenVersion;
+    this.logger = logger;
+  }
+
+  /**
+   * @return the settings decoded from the snapshot of the source file, or null if absent or stale
+   */
+  Settings read(final SourceFingerprint source) {
+    if (!source.hasStamp()) {
+      return null;
+    }
+    final File file = getFile(source);
+    if (!file.isFile()) {
+      logger.debug("Project settings snapshot miss, no snapshot " + file.getPath());
+      return null;
+    }
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1024 * 8))) {
+      if (MAGIC != in.readInt() || FORMAT_VERSION != in.readInt()) {
+        logger.debug("Project settings snapshot invalidated, unknown format of " + file.getPath());
+        return null;
+      }
+      if (!mavenVersion.equals(in.readUTF())) {
+        logger.debug("Project settings snapshot invalidated, maven version changed");
+        return null;
+      }
+      if (!in.readUTF().equals(source.getDigest())) {
+        logger.debug(
+            "Project settings snapshot invalidated, content changed: " + source.getLocation());
+        return null;
+      }
+      final Settings settings = readSettings(in);
+      logger.debug("Project settings snapshot hit " + file.getPath());
+      return settings;
+    } catch (final IOException | RuntimeException err) {
+      logger.debug("Project settings snapshot invalidated, unreadable " + file.getPath(), err);
+      return null;
+    }
+  }
+
+  /** Write the snapshot of a parsed source file atomically, ignoring any failure. */
+  void write(final SourceFingerprint source, final Settings settings) {
+    final String digest = source.hasStamp() ? source.getDigest() : null;
+    if (null == digest) {
+      return;
+    }
+    final File file = getFile(source);
+    try {
+      if (!snapshotDir.isDirectory() && !snapshotDir.mkdirs()) {
+        throw new IOException("Unable to create " + snapshotDir.getPath());
+      }
+      // replace the snapshot atomically, so the concurrent builds never read a partial one
+      final File tmp = File.createTempFile(file.getName(), ".tmp", snapshotDir);
+      try {
+        try (DataOutputStream out =
+            new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1024 * 8))) {
+          out.writeInt(MAGIC);
+          out.writeInt(FORMAT_VERSION);
+          out.writeUTF(mavenVersion);
+          out.writeUTF(digest);
+          writeSettings(out, settings);
+        }
+        Files.move(
+            tmp.toPath(),
+            file.toPath(),
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        logger.debug("Project settings snapshot stored " + file.getPath());
+      } finally {
+        Files.deleteIfExists(tmp.toPath());
+      }
+    } catch (final IOException | SecurityException err) {
+      logger.debug("Project settings snapshot skipped, unable to write " + file.getPath(), err);
+    }
+  }
+
+  private File getFile(final SourceFingerprint source) {
+    try {
+      return new File(
+          snapshotDir,
+          SourceFingerprint.toHex(
+                  MessageDigest.getInstance("SHA-1").digest(source.getLocation().getBytes(UTF_8)))
+              + SUFFIX);
+    } catch (final NoSuchAlgorithmException err) {
+      throw new IllegalStateException("SHA-1 is not supported", err);
+    }
+  }
+
+  static void encode(final Settings settings, final OutputStream out) throws IOException {
+    final DataOutputStream data = new DataOutputStream(out);
+    writeSettings(data, settings);
+    data.flush();
+  }
+
+  static Settings decode(final InputStream in) throws IOException {
+    return readSettings(new DataInputStream(in));
+  }
+
+  private static void writeSettings(final DataOutput out, final Settings settings)
+      throws IOException {
+    writeString(out, settings.getModelEncoding());
+    writeString(out, settings.getLocalRepository());
+    out.writeBoolean(settings.isInteractiveMode());
+    out.writeBoolean(settings.isUsePluginRegistry());
+    out.writeBoolean(settings.isOffline());
+
+    out.writeInt(settings.getProxies().size());
+    for (final Proxy proxy : settings.getProxies()) {
+      writeString(out, proxy.getId());
+      out.writeBoolean(proxy.isActive());
+      writeString(out, proxy.getProtocol());
+      writeString(out, proxy.getUsername());
+      writeString(out, proxy.getPassword());
+      out.writeInt(proxy.getPort());
+      writeString(out, proxy.getHost());
+      writeString(out, proxy.getNonProxyHosts());
+    }
+
+    out.writeInt(settings.getServers().size());
+    for (final Server server : settings.getServers()) {
+      writeString(out, server.getId());
+      writeString(out, server.getUsername());
+      writeString(out, server.getPassword());
+      writeString(out, server.getPrivateKey());
+      writeString(out, server.getPassphrase());
+      writeString(out, server.getFilePermissions());
+      writeString(out, server.getDirectoryPermissions());
+      writeDom(out, (Xpp3Dom) server.getConfiguration());
+    }
+
+    out.writeInt(settings.getMirrors().size());
+    for (final Mirror mirror : settings.getMirrors()) {
+      writeString(out, mirror.getId());
+      writeString(out, mirror.getMirrorOf());
+      writeString(out, mirror.getName());
+      writeString(out, mirror.getUrl());
+      writeString(out, mirror.getLayout());
+      writeString(out, mirror.getMirrorOfLayouts());
+      out.writeBoolean(mirror.isBlocked());
+    }
+
+    out.writeInt(settings.getProfiles().size());
+    for (final Profile profile : settings.getProfiles()) {
+      writeString(out, profile.getId());
+      writeActivation(out, profile.getActivation());
+      final Properties properties = profile.getProperties();
+      out.writeInt(properties.size());
+      for (final Map.Entry<Object, Object> entry : properties.entrySet()) {
+        writeString(out, (String) entry.getKey());
+        writeString(out, (String) entry.getValue());
+      }
+      writeRepositories(out, profile.getRepositories());
+      writeRepositories(out, profile.getPluginRepositories());
+    }
+
+    writeStrings(out, settings.getActiveProfiles());
+    writeStrings(out, settings.getPluginGroups());
+  }
+
+  private static Settings readSettings(final DataInput in) throws IOException {
+    final Settings settings = new Settings();
+    settings.setModelEncoding(readString(in));
+    settings.setLocalRepository(readString(in));
+    settings.setInteractiveMode(in.readBoolean());
+    settings.setUsePluginRegistry(in.readBoolean());
+    settings.setOffline(in.readBoolean());
+
+    for (int i = in.readInt(); i > 0; --i) {
+      final Proxy proxy = new Proxy();
+      proxy.setId(readString(in));
+      proxy.setActive(in.readBoolean());
+      proxy.setProtocol(readString(in));
+      proxy.setUsername(readString(in));
+      proxy.setPassword(readString(in));
+      proxy.setPort(in.readInt());
+      proxy.setHost(readString(in));
+      proxy.setNonProxyHosts(readString(in));
+      settings.addProxy(proxy);
+    }
+
+    for (int i = in.readInt(); i > 0; --i) {
+      final Server server = new Server();
+      server.setId(readString(in));
+      server.setUsername(readString(in));
+      server.setPassword(readString(in));
+      server.setPrivateKey(readString(in));
+      server.setPassphrase(readString(in));
+      server.setFilePermissions(readString(in));
+      server.setDirectoryPermissions(readString(in));
+      server.setConfiguration(readDom(in));
+      settings.addServer(server);
+    }
+
+    for (int i = in.readInt(); i > 0; --i) {
+      final Mirror mirror = new Mirror();
+      mirror.setId(readString(in));
+      mirror.setMirrorOf(readString(in));
+      mirror.setName(readString(in));
+      mirror.setUrl(readString(in));
+      mirror.setLayout(readString(in));
+      mirror.setMirrorOfLayouts(readString(in));
+      mirror.setBlocked(in.readBoolean());
+      settings.addMirror(mirror);
+    }
+
+    for (int i = in.readInt(); i > 0; --i) {
+      final Profile profile = new Profile();
+      profile.setId(readString(in));
+      profile.setActivation(readActivation(in));
+      for (int j = in.readInt(); j > 0; --j) {
+        profile.addProperty(readString(in), readString(in));
+      }
+      for (int j = in.readInt(); j > 0; --j) {
+        profile.addRepository(readRepository(in));
+      }
+      for (int j = in.readInt(); j > 0; --j) {
+        profile.addPluginRepository(readRepository(in));
+      }
+      settings.addProfile(profile);
+    }
+
+    for (int i = in.readInt(); i > 0; --i) {
+      settings.addActiveProfile(readString(in));
+    }
+    for (int i = in.readInt(); i > 0; --i) {
+      settings.addPluginGroup(readString(in));
+    }
+    return settings;
+  }
+
+  private static void writeActivation(final DataOutput out, final Activation activation)
+      throws IOException {
+    out.writeBoolean(null != activation);
+    if (null == activation) {
+      return;
+    }
+    out.writeBoolean(activation.isActiveByDefault());
+    writeString(out, activation.getJdk());
+
+    final ActivationOS os = activation.getOs();
+    out.writeBoolean(null != os);
+    if (null != os) {
+      writeString(out, os.getName());
+      writeString(out, os.getFamily());
+      writeString(out, os.getArch());
+      writeString(out, os.getVersion());
+    }
+
+    final ActivationProperty property = activation.getProperty();
+    out.writeBoolean(null != property);
+    if (null != property) {
+      writeString(out, property.getName());
+      writeString(out, property.getValue());
+    }
+
+    final ActivationFile file = activation.getFile();
+    out.writeBoolean(null != file);
+    if (null != file) {
+      writeString(out, file.getMissing());
+      writeString(out, file.getExists());
+    }
+  }
+
+  private static Activation readActivation(final DataInput in) throws IOException {
+    if (!in.readBoolean()) {
+      return null;
+    }
+    final Activation activation = new Activation();
+    activation.setActiveByDefault(in.readBoolean());
+    activation.setJdk(readString(in));
+
+    if (in.readBoolean()) {
+      final ActivationOS os = new ActivationOS();
+      os.setName(readString(in));
+      os.setFamily(readString(in));
+      os.setArch(readString(in));
+      os.setVersion(readString(in));
+      activation.setOs(os);
+    }
+
+    if (in.readBoolean()) {
+      final ActivationProperty property = new ActivationProperty();
+      property.setName(readString(in));
+      property.setValue(readString(in));
+      activation.setProperty(property);
+    }
+
+    if (in.readBoolean()) {
+      final ActivationFile file = new ActivationFile();
+      file.setMissing(readString(in));
+      file.setExists(readString(in));
+      activation.setFile(file);
+    }
+    return activation;
+  }
+
+  private static void writeRepositories(final DataOutput out, final List<Repository> repositories)
+      throws IOException {
+    out.writeInt(repositories.size());
+    for (final Repository repository : repositories) {
+      writeString(out, repository.getId());
+      writeString(out, repository.getName());
+      writeString(out, repository.getUrl());
+      writeString(out, repository.getLayout());
+      writePolicy(out, repository.getReleases());
+      writePolicy(out, repository.getSnapshots());
+    }
+  }
+
+  private static Repository readRepository(final DataInput in) throws IOException {
+    final Repository repository = new Repository();
+    repository.setId(readString(in));
+    repository.setName(readString(in));
+    repository.setUrl(readString(in));
+    repository.setLayout(readString(in));
+    repository.setReleases(readPolicy(in));
+    repository.setSnapshots(readPolicy(in));
+    return repository;
+  }
+
+  private static void writePolicy(final DataOutput out, final RepositoryPolicy policy)
+      throws IOException {
+    out.writeBoolean(null != policy);
+    if (null != policy) {
+      out.writeBoolean(policy.isEnabled());
+      writeString(out, policy.getUpdatePolicy());
+      writeString(out, policy.getChecksumPolicy());
+    }
+  }
+
+  private static RepositoryPolicy readPolicy(final DataInput in) throws IOException {
+    if (!in.readBoolean()) {
+      return null;
+    }
+    final RepositoryPolicy policy = new RepositoryPolicy();
+    policy.setEnabled(in.readBoolean());
+    policy.setUpdatePolicy(readString(in));
+    policy.setChecksumPolicy(readString(in));
+    return policy;
+  }
+
+  private static void writeDom(final DataOutput out, final Xpp3Dom dom) throws IOException {
+    out.writeBoolean(null != dom);
+    if (null == dom) {
+      return;
+    }
+    writeString(out, dom.getName());
+    writeString(out, dom.getValue());
+    final String[] attributes = dom.getAttributeNames();
+    out.writeInt(attributes.length);
+    for (final String attribute : attributes) {
+      writeString(out, attribute);
+      writeString(out, dom.getAttribute(attribute));
+    }
+    out.writeInt(dom.getChildCount());
+    for (final Xpp3Dom child : dom.getChildren()) {
+      writeDom(out, child);
+    }
+  }
+
+  private static Xpp3Dom readDom(final DataInput in) throws IOException {
+    if (!in.readBoolean()) {
+      return null;
+    }
+    final Xpp3Dom dom = new Xpp3Dom(readString(in));
+    dom.setValue(readString(in));
+    for (int i = in.readInt(); i > 0; --i) {
+      dom.setAttribute(readString(in), readString(in));
+    }
+    for (int i = in.readInt(); i > 0; --i) {
+      dom.addChild(readDom(in));
+    }
+    return dom;
+  }
+
+  private static void writeStrings(final DataOutput out, final List<String> values)
+      throws IOException {
+    out.writeInt(values.size());
+    for (final String value : values) {
+      writeString(out, value);
+    }
+  }
+
+  /** Write a nullable string of any length, unlike {@link DataOutput#writeUTF}. */
+  private static void writeString(final DataOutput out, final String value) throws IOException {
+    if (null == value) {
+      out.writeInt(-1);
+      return;
+    }
+    final byte[] bytes = value.getBytes(UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(final DataInput in) throws IOException {
+    final int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    final byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, UTF_8);
+  }
+}
@@ -0,0 +1,106 @@
+package com.github.gzm55.maven.settings.building;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import org.apache.maven.building.FileSource;
+import org.apache.maven.building.Source;
+
+/**
+ * Size, modification time and content digest of a settings source. The stamp of a file source is
+ * taken when the fingerprint is created, so it must be created before reading the source, and a
+ * concurrent modification is detected next time. The digest is taken on the first {@link
+ * #getDigest}, which must be called before keeping the fingerprint to compare with later.
+ */
+final class SourceFingerprint {
+
+  private static final String DIGEST_ALGORITHM = "SHA-256";
+
+  private final Source source;
+  private final File file;
+  private final long size;
+  private final long lastModified;
+  private volatile String digest;
+
+  SourceFingerprint(final Source source) {
+    this.source = source;
+    this.file = source instanceof FileSource ? ((FileSource) source).getFile() : null;
+    this.size = null == file ? -1L : file.length();
+    this.lastModified = null == file ? -1L : file.lastModified();
+  }
+
+  Source getSource() {
+    return source;
+  }
+
+  String getLocation() {
+    return source.getLocation();
+  }
+
+  /**
+   * @return true if the source is a file, so its size and modification time are available
+   */
+  boolean hasStamp() {
+    return null != file;
+  }
+
+  long getSize() {
+    return size;
+  }
+
+  long getLastModified() {
+    return lastModified;
+  }
+
+  /**
+   * @return the hex SHA-256 digest of the content, or null if the source is not readable
+   */
+  String getDigest() {
+    if (null == digest) {
+      digest = digest(source);
+    }
+    return digest;
+  }
+
+  private static String digest(final Source source) {
+    try (InputStream in = source.getInputStream()) {
+      final MessageDigest md = MessageDigest.getInstance(DIGEST_ALGORITHM);
+      final byte[] buffer = new byte[8192];
+      for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+        md.update(buffer, 0, n);
+      }
+      return toHex(md.digest());
+    } catch (final IOException | NoSuchAlgorithmException err) {
+      return null;
+    }
+  }
+
+  /**
+   * Compare with a fingerprint taken earlier. Files whose stamps differ are changed without
+   * comparing the digests, but equal stamps never prove a file unchanged, e.g. a same-size edit
+   * within the granularity of the modification time, so the digests are compared then. An earlier
+   * fingerprint whose digest was never taken is always changed.
+   */
+  boolean isUnchangedSince(final SourceFingerprint earlier) {
+    if (!getLocation().equals(earlier.getLocation())) {
+      return false;
+    }
+    if (hasStamp()
+        && earlier.hasStamp()
+        && (0L == lastModified || size != earlier.size || lastModified != earlier.lastModified)) {
+      return false;
+    }
+    final String earlierDigest = earlier.digest;
+    return null != earlierDigest && earlierDigest.equals(getDigest());
+  }
+
+  static String toHex(final byte[] bytes) {
+    final StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (final byte b : bytes) {
+      sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    return sb.toString();
+  }
+}
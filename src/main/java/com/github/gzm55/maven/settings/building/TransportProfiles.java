@@ -0,0 +1,247 @@
+package com.github.gzm55.maven.settings.building;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.maven.settings.Server;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+
+/**
+ * Translates the transport tuning of the servers, declared once in a version neutral {@code
+ * <transport>} block of the server configuration, into the keys understood by the transport of the
+ * running maven:
+ *
+ * <pre>
+ * &lt;server&gt;
+ *   &lt;id&gt;corp&lt;/id&gt;
+ *   &lt;configuration&gt;
+ *     &lt;transport&gt;
+ *       &lt;connectTimeout&gt;5000&lt;/connectTimeout&gt;
+ *       &lt;requestTimeout&gt;30000&lt;/requestTimeout&gt;
+ *       &lt;retryCount&gt;5&lt;/retryCount&gt;
+ *       &lt;connectionMaxTtl&gt;300&lt;/connectionMaxTtl&gt;
+ *       &lt;maxConnectionsPerRoute&gt;40&lt;/maxConnectionsPerRoute&gt;
+ *       &lt;parallelConnections&gt;10&lt;/parallelConnections&gt;
+ *     &lt;/transport&gt;
+ *   &lt;/configuration&gt;
+ * &lt;/server&gt;
+ * </pre>
+ *
+ * <p>On maven 3.9+, the timeouts become the server configuration keys of the resolver transport,
+ * the others become the resolver configuration properties suffixed by the server id. On the older
+ * maven, the timeouts become the {@code httpConfiguration} of the wagon, and the others the global
+ * wagon system properties, taking the largest value of all servers. The wagon reads them from the
+ * jvm wide system properties only, into static fields when its classes are initialized, so in a
+ * long-lived jvm, e.g. a maven daemon, the values seen by the first build using the wagon stay in
+ * effect until the jvm exits. {@link #restore} only removes them from the system properties at the
+ * end of the session, it neither undoes what the wagon has read nor isolates the builds. The
+ * parallel connections are always global. Any key configured explicitly is never overridden, and
+ * the {@code <transport>} block is removed, so no transport sees an unknown key.
+ */
+final class TransportProfiles {
+
+  static final String TRANSPORT = "transport";
+
+  static final String CONNECT_TIMEOUT = "connectTimeout";
+  static final String REQUEST_TIMEOUT = "requestTimeout";
+  static final String RETRY_COUNT = "retryCount";
+  static final String CONNECTION_MAX_TTL = "connectionMaxTtl";
+  static final String MAX_CONNECTIONS_PER_ROUTE = "maxConnectionsPerRoute";
+  static final String PARALLEL_CONNECTIONS = "parallelConnections";
+  static final String HTTP2 = "http2";
+
+  private static final String[][] RESOLVER_KEYS = {
+    {RETRY_COUNT, "aether.connector.http.retryHandler.count"},
+    {CONNECTION_MAX_TTL, "aether.connector.http.connectionMaxTtl"},
+    {MAX_CONNECTIONS_PER_ROUTE, "aether.connector.http.maxConnectionsPerRoute"},
+  };
+
+  private static final String[][] WAGON_KEYS = {
+    {RETRY_COUNT, "maven.wagon.http.retryHandler.count"},
+    {CONNECTION_MAX_TTL, "maven.wagon.httpconnectionManager.ttlSeconds"},
+    {MAX_CONNECTIONS_PER_ROUTE, "maven.wagon.httpconnectionManager.maxPerRoute"},
+  };
+
+  private static final String THREADS_KEY = "maven.artifact.threads";
+
+  /**
+   * Whether any session of this jvm has set the wagon properties, which the wagon may have read.
+   */
+  private static final AtomicBoolean WAGON_APPLIED = new AtomicBoolean();
+
+  private final boolean resolverTransport;
+  private final Logger logger;
+
+  /** The wagon properties set by {@link #apply}, with their values. */
+  private final Map<String, String> wagonSet = new LinkedHashMap<String, String>();
+
+  /**
+   * @param resolverTransport true on maven 3.9+, whose resolver transports read the timeouts from
+   *     the server configuration and the other options from the repository suffixed properties
+   */
+  TransportProfiles(final boolean resolverTransport, final Logger logger) {
+    this.resolverTransport = resolverTransport;
+    this.logger = logger;
+  }
+
+  /**
+   * @param servers the servers of the effective settings, translated in place
+   * @param userProperties the user properties of the request, receiving the resolver properties
+   * @param systemProperties the system properties of the request
+   * @param wagonProperties the jvm wide properties read by the wagon transport before maven 3.9
+   * @return the number of servers having a transport tuning
+   */
+  int apply(
+      final List<Server> servers,
+      final Properties userProperties,
+      final Properties systemProperties,
+      final Properties wagonProperties) {
+    int tuned = 0;
+    long threads = -1L;
+    final long[] wagonValues = new long[WAGON_KEYS.length];
+    for (int i = 0; i < wagonValues.length; ++i) {
+      wagonValues[i] = -1L;
+    }
+
+    for (final Server server : servers) {
+      final Xpp3Dom conf =
+          server.getConfiguration() instanceof Xpp3Dom ? (Xpp3Dom) server.getConfiguration() : null;
+      final Xpp3Dom transport = null == conf ? null : conf.getChild(TRANSPORT);
+      if (null == transport) {
+        continue;
+      }
+      ++tuned;
+      removeChild(conf, TRANSPORT);
+
+      if (null != transport.getChild(HTTP2)) {
+        logger.debug(
+            "The transports of this maven do not support HTTP/2, ignore it of server "
+                + server.getId());
+      }
+      threads = Math.max(threads, getValue(server, transport, PARALLEL_CONNECTIONS));
+
+      if (resolverTransport) {
+        setChild(conf, CONNECT_TIMEOUT, getValue(server, transport, CONNECT_TIMEOUT));
+        setChild(conf, REQUEST_TIMEOUT, getValue(server, transport, REQUEST_TIMEOUT));
+        for (final String[] keys : RESOLVER_KEYS) {
+          setProperty(
+              userProperties,
+              systemProperties,
+              keys[1] + '.' + server.getId(),
+              getValue(server, transport, keys[0]));
+        }
+      } else {
+        final long connectTimeout = getValue(server, transport, CONNECT_TIMEOUT);
+        final long requestTimeout = getValue(server, transport, REQUEST_TIMEOUT);
+        if (connectTimeout >= 0L || requestTimeout >= 0L) {
+          final Xpp3Dom all = getOrAddChild(getOrAddChild(conf, "httpConfiguration"), "all");
+          setChild(all, "connectionTimeout", connectTimeout);
+          setChild(all, "readTimeout", requestTimeout);
+        }
+        for (int i = 0; i < WAGON_KEYS.length; ++i) {
+          wagonValues[i] = Math.max(wagonValues[i], getValue(server, transport, WAGON_KEYS[i][0]));
+        }
+      }
+      if (logger.isDebugEnabled()) {
+        logger.debug("Apply the transport tuning of server " + server.getId());
+      }
+    }
+
+    setProperty(userProperties, systemProperties, THREADS_KEY, threads);
+    for (int i = 0; i < WAGON_KEYS.length; ++i) {
+      if (setProperty(wagonProperties, systemProperties, WAGON_KEYS[i][1], wagonValues[i])) {
+        wagonSet.put(WAGON_KEYS[i][1], wagonProperties.getProperty(WAGON_KEYS[i][1]));
+      }
+    }
+    if (!wagonSet.isEmpty() && WAGON_APPLIED.getAndSet(true) && logger.isDebugEnabled()) {
+      logger.debug(
+          "The wagon may keep the transport tuning of an earlier build in this jvm, ignoring "
+              + wagonSet);
+    }
+    return tuned;
+  }
+
+  /**
+   * Remove the wagon properties set by {@link #apply} from the system properties, unless changed
+   * since by others. A wagon already initialized keeps the values it has read.
+   *
+   * @param wagonProperties the same properties passed to {@link #apply}
+   */
+  void restore(final Properties wagonProperties) {
+    for (final Map.Entry<String, String> entry : wagonSet.entrySet()) {
+      if (entry.getValue().equals(wagonProperties.getProperty(entry.getKey()))) {
+        wagonProperties.remove(entry.getKey());
+      }
+    }
+    wagonSet.clear();
+  }
+
+  /**
+   * @return the non-negative value of the key, or -1 if absent or invalid
+   */
+  private long getValue(final Server server, final Xpp3Dom transport, final String key) {
+    final Xpp3Dom child = transport.getChild(key);
+    if (null == child || null == child.getValue()) {
+      return -1L;
+    }
+    try {
+      final long value = Long.parseLong(child.getValue().trim());
+      if (value >= 0L) {
+        return value;
+      }
+    } catch (final NumberFormatException err) {
+      // warned below
+    }
+    logger.warn(
+        "Ignore the invalid transport "
+            + key
+            + " of server "
+            + server.getId()
+            + ": "
+            + child.getValue());
+    return -1L;
+  }
+
+  private static Xpp3Dom getOrAddChild(final Xpp3Dom parent, final String name) {
+    Xpp3Dom child = parent.getChild(name);
+    if (null == child) {
+      child = new Xpp3Dom(name);
+      parent.addChild(child);
+    }
+    return child;
+  }
+
+  /** Set the child to the value, unless absent or configured explicitly. */
+  private static void setChild(final Xpp3Dom parent, final String name, final long value) {
+    if (value >= 0L && null == parent.getChild(name)) {
+      final Xpp3Dom child = new Xpp3Dom(name);
+      child.setValue(String.valueOf(value));
+      parent.addChild(child);
+    }
+  }
+
+  private static void removeChild(final Xpp3Dom parent, final String name) {
+    for (int i = parent.getChildCount() - 1; i >= 0; i--) {
+      if (name.equals(parent.getChild(i).getName())) {
+        parent.removeChild(i);
+      }
+    }
+  }
+
+  /**
+   * Set the property to the value, unless absent or configured explicitly.
+   *
+   * @return true if set
+   */
+  private static boolean setProperty(
+      final Properties target, final Properties explicit, final String key, final long value) {
+    if (value >= 0L && null == target.getProperty(key) && null == explicit.getProperty(key)) {
+      target.setProperty(key, String.valueOf(value));
+      return true;
+    }
+    return false;
+  }
+}
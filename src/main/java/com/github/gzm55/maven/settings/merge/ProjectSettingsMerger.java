@@ -2,14 +2,42 @@ package com.github.gzm55.maven.settings.merge;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import org.apache.maven.settings.IdentifiableBase;
+import org.apache.maven.settings.Profile;
 import org.apache.maven.settings.Proxy;
+import org.apache.maven.settings.Repository;
+import org.apache.maven.settings.RepositoryPolicy;
 import org.apache.maven.settings.Server;
 import org.apache.maven.settings.Settings;
 import org.apache.maven.settings.merge.MavenSettingsMerger;
 
 public class ProjectSettingsMerger extends MavenSettingsMerger {
 
+  /**
+   * The id of the settings profile declaring the resolver properties, whose properties are merged
+   * one by one instead of replacing the whole profile.
+   */
+  public static final String RESOLVER_PROFILE_ID = "project-settings-resolver";
+
+  /**
+   * The id of the settings profile declaring the groupId prefixes served by each repository, merged
+   * the same as {@link #RESOLVER_PROFILE_ID}.
+   */
+  public static final String ROUTING_PROFILE_ID = "project-settings-routing";
+
+  /**
+   * The property of the {@link #RESOLVER_PROFILE_ID} profile throttling the update policies of all
+   * the repositories, e.g. {@code interval:60} checks the updates at most every hour.
+   */
+  public static final String UPDATE_POLICY_KEY = "updatePolicy";
+
+  private static final int MINUTES_PER_DAY = 24 * 60;
+
   /**
    * @param dominant i.e, a project setting
    * @param recessive a user or global level settings
@@ -62,6 +90,149 @@ public class ProjectSettingsMerger extends MavenSettingsMerger {
       }
     }
 
+    // the user level resolver properties and routes override the project ones
+    mergeProperties(dominant, recessive, RESOLVER_PROFILE_ID, false);
+    mergeProperties(dominant, recessive, ROUTING_PROFILE_ID, false);
+
     super.merge(dominant, recessive, recessiveSourceLevel);
+
+    throttleUpdatePolicies(dominant);
+  }
+
+  /**
+   * Merge an outer project settings layer into an inner one by the same id based rules, except that
+   * the source levels are left unset for the final merge into the user or global settings, and the
+   * locally used fields are left to be replaced there.
+   *
+   * @param dominant an inner project settings layer
+   * @param recessive the merged outer project settings layers
+   */
+  public void mergeLayer(final Settings dominant, final Settings recessive) {
+    if (null == dominant || null == recessive) {
+      return;
+    }
+
+    mergeProperties(dominant, recessive, RESOLVER_PROFILE_ID, true);
+    mergeProperties(dominant, recessive, ROUTING_PROFILE_ID, true);
+    mergeStrings(dominant.getActiveProfiles(), recessive.getActiveProfiles());
+    mergeStrings(dominant.getPluginGroups(), recessive.getPluginGroups());
+    mergeById(dominant.getMirrors(), recessive.getMirrors());
+    mergeById(dominant.getServers(), recessive.getServers());
+    mergeById(dominant.getProfiles(), recessive.getProfiles());
+  }
+
+  private static void mergeProperties(
+      final Settings dominant,
+      final Settings recessive,
+      final String profileId,
+      final boolean dominantWins) {
+    final Profile recessiveProfile = getProfile(recessive, profileId);
+    final Profile dominantProfile = getProfile(dominant, profileId);
+    if (null == recessiveProfile || null == dominantProfile) {
+      return;
+    }
+    final Properties properties = dominantProfile.getProperties();
+    for (final String key : recessiveProfile.getProperties().stringPropertyNames()) {
+      if (!dominantWins || !properties.containsKey(key)) {
+        properties.setProperty(key, recessiveProfile.getProperties().getProperty(key));
+      }
+    }
+  }
+
+  /**
+   * @return the profile of the id, without caching the profile map of the settings being merged
+   */
+  private static Profile getProfile(final Settings settings, final String id) {
+    for (final Profile profile : settings.getProfiles()) {
+      if (id.equals(profile.getId())) {
+        return profile;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Relax the update policies of the repositories of all profiles checking more often than the
+   * policy declared by the resolver profile, the less frequent ones are kept.
+   */
+  private static void throttleUpdatePolicies(final Settings settings) {
+    final Profile resolverProfile = getProfile(settings, RESOLVER_PROFILE_ID);
+    final String declared =
+        null == resolverProfile
+            ? null
+            : resolverProfile.getProperties().getProperty(UPDATE_POLICY_KEY);
+    final String policy = null == declared ? null : declared.trim();
+    final long minutes = toMinutes(policy);
+    if (minutes < 0L) {
+      return;
+    }
+
+    for (final Profile profile : settings.getProfiles()) {
+      final List<Repository> repositories = new ArrayList<Repository>(profile.getRepositories());
+      repositories.addAll(profile.getPluginRepositories());
+      for (final Repository repository : repositories) {
+        repository.setReleases(throttle(repository.getReleases(), policy, minutes));
+        repository.setSnapshots(throttle(repository.getSnapshots(), policy, minutes));
+      }
+    }
+  }
+
+  private static RepositoryPolicy throttle(
+      final RepositoryPolicy repositoryPolicy, final String policy, final long minutes) {
+    final long current =
+        null == repositoryPolicy ? -1L : toMinutes(repositoryPolicy.getUpdatePolicy());
+    // an absent or invalid policy is daily, the same as maven
+    if ((current < 0L ? MINUTES_PER_DAY : current) >= minutes) {
+      return repositoryPolicy;
+    }
+    final RepositoryPolicy throttled =
+        null == repositoryPolicy ? new RepositoryPolicy() : repositoryPolicy;
+    throttled.setUpdatePolicy(policy);
+    return throttled;
+  }
+
+  /**
+   * @return the minutes between two update checks of the policy, {@code Long.MAX_VALUE} if never,
+   *     or -1 if absent or invalid
+   */
+  static long toMinutes(final String policy) {
+    if (null == policy || policy.isEmpty()) {
+      return -1L;
+    } else if ("always".equals(policy)) {
+      return 0L;
+    } else if ("daily".equals(policy)) {
+      return MINUTES_PER_DAY;
+    } else if ("never".equals(policy)) {
+      return Long.MAX_VALUE;
+    } else if (policy.startsWith("interval:")) {
+      try {
+        final long minutes = Long.parseLong(policy.substring("interval:".length()));
+        return minutes < 0L ? -1L : minutes;
+      } catch (final NumberFormatException err) {
+        return -1L;
+      }
+    }
+    return -1L;
+  }
+
+  private static void mergeStrings(final List<String> dominant, final List<String> recessive) {
+    for (final String value : recessive) {
+      if (!dominant.contains(value)) {
+        dominant.add(value);
+      }
+    }
+  }
+
+  private static <T extends IdentifiableBase> void mergeById(
+      final List<T> dominant, final List<T> recessive) {
+    final Set<String> ids = new HashSet<String>();
+    for (final T identifiable : dominant) {
+      ids.add(identifiable.getId());
+    }
+    for (final T identifiable : recessive) {
+      if (!ids.contains(identifiable.getId())) {
+        dominant.add(identifiable);
+      }
+    }
   }
 }
@@ -0,0 +1,208 @@
+package com.github.gzm55.maven.settings.building;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** JDK Flight Recorder implementation of {@link FlightEvents}, only loaded on java 11+. */
+final class JfrFlightEvents extends FlightEvents {
+
+  private static final String PREFIX = "com.github.gzm55.maven.settings.";
+
+  @Name(PREFIX + "Read")
+  @Label("Read Settings")
+  @Description("Read and parse a settings source")
+  @Category({"Maven", "Project Settings"})
+  @StackTrace(false)
+  static final class ReadEvent extends Event {
+    @Label("Location")
+    String location;
+
+    @Label("Level")
+    String level;
+
+    @Label("Size")
+    @DataAmount
+    long bytes;
+  }
+
+  @Name(PREFIX + "Validate")
+  @Label("Validate Settings")
+  @Category({"Maven", "Project Settings"})
+  @StackTrace(false)
+  static final class ValidateEvent extends Event {
+    @Label("Location")
+    String location;
+
+    @Label("Problems")
+    int problems;
+  }
+
+  @Name(PREFIX + "Merge")
+  @Label("Merge Settings")
+  @Description("Merge the project settings into the user or global settings")
+  @Category({"Maven", "Project Settings"})
+  @StackTrace(false)
+  static final class MergeEvent extends Event {
+    @Label("Servers")
+    int servers;
+
+    @Label("Mirrors")
+    int mirrors;
+
+    @Label("Profiles")
+    int profiles;
+  }
+
+  @Name(PREFIX + "Write")
+  @Label("Write Settings")
+  @Description("Serialize the merged settings")
+  @Category({"Maven", "Project Settings"})
+  @StackTrace(false)
+  static final class WriteEvent extends Event {
+    @Label("Location")
+    String location;
+
+    @Label("Characters")
+    long chars;
+  }
+
+  @Name(PREFIX + "IdeSync")
+  @Label("IDE Parent Sync")
+  @Description("Remove the flag files of the remote parent poms for IDE")
+  @Category({"Maven", "Project Settings"})
+  @StackTrace(false)
+  static final class IdeSyncEvent extends Event {
+    @Label("Local Repository")
+    String localRepository;
+
+    @Label("Parents")
+    int parents;
+
+    @Label("Skipped Parents")
+    int skippedParents;
+
+    @Label("Removed Files")
+    int removedFiles;
+  }
+
+  @Name(PREFIX + "Dispatch")
+  @Label("Spy Event Dispatch")
+  @Description("An event handled by the project settings event spy")
+  @Category({"Maven", "Project Settings"})
+  @StackTrace(false)
+  static final class DispatchEvent extends Event {
+    @Label("Event Type")
+    String eventType;
+  }
+
+  private static <T extends Event> T begin(final T event) {
+    if (!event.isEnabled()) {
+      return null;
+    }
+    event.begin();
+    return event;
+  }
+
+  @Override
+  Object beginRead() {
+    return begin(new ReadEvent());
+  }
+
+  @Override
+  void commitRead(final Object event, final String location, final String level, final long bytes) {
+    if (event instanceof ReadEvent) {
+      final ReadEvent e = (ReadEvent) event;
+      e.location = location;
+      e.level = level;
+      e.bytes = bytes;
+      e.commit();
+    }
+  }
+
+  @Override
+  Object beginValidate() {
+    return begin(new ValidateEvent());
+  }
+
+  @Override
+  void commitValidate(final Object event, final String location, final int problems) {
+    if (event instanceof ValidateEvent) {
+      final ValidateEvent e = (ValidateEvent) event;
+      e.location = location;
+      e.problems = problems;
+      e.commit();
+    }
+  }
+
+  @Override
+  Object beginMerge() {
+    return begin(new MergeEvent());
+  }
+
+  @Override
+  void commitMerge(final Object event, final int servers, final int mirrors, final int profiles) {
+    if (event instanceof MergeEvent) {
+      final MergeEvent e = (MergeEvent) event;
+      e.servers = servers;
+      e.mirrors = mirrors;
+      e.profiles = profiles;
+      e.commit();
+    }
+  }
+
+  @Override
+  Object beginWrite() {
+    return begin(new WriteEvent());
+  }
+
+  @Override
+  void commitWrite(final Object event, final String location, final long chars) {
+    if (event instanceof WriteEvent) {
+      final WriteEvent e = (WriteEvent) event;
+      e.location = location;
+      e.chars = chars;
+      e.commit();
+    }
+  }
+
+  @Override
+  Object beginIdeSync() {
+    return begin(new IdeSyncEvent());
+  }
+
+  @Override
+  void commitIdeSync(
+      final Object event,
+      final String localRepository,
+      final int parents,
+      final int skippedParents,
+      final int removedFiles) {
+    if (event instanceof IdeSyncEvent) {
+      final IdeSyncEvent e = (IdeSyncEvent) event;
+      e.localRepository = localRepository;
+      e.parents = parents;
+      e.skippedParents = skippedParents;
+      e.removedFiles = removedFiles;
+      e.commit();
+    }
+  }
+
+  @Override
+  Object beginDispatch() {
+    return begin(new DispatchEvent());
+  }
+
+  @Override
+  void commitDispatch(final Object event, final String eventType) {
+    if (event instanceof DispatchEvent) {
+      final DispatchEvent e = (DispatchEvent) event;
+      e.eventType = eventType;
+      e.commit();
+    }
+  }
+}
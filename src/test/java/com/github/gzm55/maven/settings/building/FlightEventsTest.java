@@ -0,0 +1,42 @@
+package com.github.gzm55.maven.settings.building;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Path;
+import java.util.List;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Tests {@code FlightEvents}. */
+public class FlightEventsTest {
+
+  @Test
+  void testRecordEvents(@TempDir final Path tempDir) throws Exception {
+    final FlightEvents events = FlightEvents.getInstance();
+    assertEquals("JfrFlightEvents", events.getClass().getSimpleName());
+
+    // not recording
+    assertNull(events.beginRead());
+
+    final Path file = tempDir.resolve("events.jfr");
+    try (Recording recording = new Recording()) {
+      recording.start();
+      events.commitRead(events.beginRead(), "settings.xml", "project", 42L);
+      events.commitMerge(events.beginMerge(), 1, 2, 3);
+      recording.stop();
+      recording.dump(file);
+    }
+
+    final List<RecordedEvent> recorded = RecordingFile.readAllEvents(file);
+    assertEquals(2, recorded.size());
+    final RecordedEvent read = recorded.get(0);
+    assertEquals("com.github.gzm55.maven.settings.Read", read.getEventType().getName());
+    assertEquals("settings.xml", read.getString("location"));
+    assertEquals(42L, read.getLong("bytes"));
+    final RecordedEvent merge = recorded.get(1);
+    assertEquals(2, merge.getInt("mirrors"));
+  }
+}
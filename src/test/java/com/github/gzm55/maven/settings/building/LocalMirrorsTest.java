@@ -0,0 +1,90 @@
+package com.github.gzm55.maven.settings.building;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.github.gzm55.maven.settings.merge.ProjectSettingsMerger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.apache.maven.execution.DefaultMavenExecutionRequest;
+import org.apache.maven.execution.MavenExecutionRequest;
+import org.apache.maven.model.Profile;
+import org.apache.maven.settings.Mirror;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Tests {@code LocalMirrors}. */
+public class LocalMirrorsTest {
+  private final Logger logger = new ConsoleLogger(Logger.LEVEL_DISABLED, "test");
+
+  @Test
+  void testHealthyMirror(@TempDir final Path dir) throws Exception {
+    Files.createDirectories(dir.resolve(".index"));
+    Files.createFile(dir.resolve(LocalMirrors.INDEX_FILE));
+    Files.createFile(dir.resolve(LocalMirrors.DEFAULT_MARKER));
+    final MavenExecutionRequest request = newRequest(dir.toUri().toString());
+
+    assertEquals(1, new LocalMirrors(logger).apply(request));
+    assertEquals("corp-local", request.getMirrors().get(0).getId());
+    assertEquals("corp", request.getMirrors().get(1).getId());
+  }
+
+  @Test
+  void testIncompleteMirror(@TempDir final Path dir) throws Exception {
+    // synced partially, the marker not written yet
+    Files.createDirectories(dir.resolve(".index"));
+    Files.createFile(dir.resolve(LocalMirrors.INDEX_FILE));
+    final MavenExecutionRequest request = newRequest(dir.toUri().toString());
+
+    assertEquals(0, new LocalMirrors(logger).apply(request));
+    assertEquals(1, request.getMirrors().size());
+    assertEquals("corp", request.getMirrors().get(0).getId());
+
+    // a custom marker
+    Files.createFile(dir.resolve("synced"));
+    final MavenExecutionRequest custom = newRequest(dir.toUri().toString());
+    custom.getProfiles().get(0).addProperty(LocalMirrors.LOCAL_MIRROR_MARKER, "synced");
+    assertEquals(1, new LocalMirrors(logger).apply(custom));
+  }
+
+  @Test
+  void testAbsentMirror(@TempDir final Path dir) {
+    final MavenExecutionRequest request = newRequest(dir.resolve("absent").toUri().toString());
+    assertEquals(0, new LocalMirrors(logger).apply(request));
+    assertEquals(1, request.getMirrors().size());
+
+    // not a local path
+    final MavenExecutionRequest remote = newRequest("https://repo.corp/local");
+    assertEquals(0, new LocalMirrors(logger).apply(remote));
+    assertEquals(1, remote.getMirrors().size());
+  }
+
+  @Test
+  void testNoCandidates() {
+    final MavenExecutionRequest request = newRequest("file:///absent");
+    request.getProfiles().get(0).getProperties().remove(LocalMirrors.LOCAL_MIRRORS);
+    assertEquals(0, new LocalMirrors(logger).apply(request));
+    assertEquals(2, request.getMirrors().size());
+    assertEquals("corp", request.getMirrors().get(0).getId());
+  }
+
+  private static MavenExecutionRequest newRequest(final String localUrl) {
+    final Profile profile = new Profile();
+    profile.setId(ProjectSettingsMerger.RESOLVER_PROFILE_ID);
+    profile.addProperty(LocalMirrors.LOCAL_MIRRORS, "corp-local, other-local");
+    final MavenExecutionRequest request = new DefaultMavenExecutionRequest();
+    request.addProfile(profile);
+    request.addMirror(newMirror("corp", "https://repo.corp/maven"));
+    request.addMirror(newMirror("corp-local", localUrl));
+    return request;
+  }
+
+  private static Mirror newMirror(final String id, final String url) {
+    final Mirror mirror = new Mirror();
+    mirror.setId(id);
+    mirror.setUrl(url);
+    mirror.setMirrorOf("*");
+    return mirror;
+  }
+}
@@ -0,0 +1,143 @@
+package com.github.gzm55.maven.settings.building;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Properties;
+import org.apache.maven.building.FileSource;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Tests {@code MergedSettingsCache}. */
+public class MergedSettingsCacheTest {
+  private final Logger logger = new ConsoleLogger(Logger.LEVEL_DISABLED, "test");
+
+  @Test
+  void testCorruptEntry(@TempDir final Path dir) throws Exception {
+    final Path cacheDir = dir.resolve("cache");
+    final MergedSettingsCache cache = new MergedSettingsCache(cacheDir.toFile(), "3.9.0", logger);
+    final MergedSettingsCache.Key key = newKey(cache, dir);
+
+    cache.put(key, "<settings/>", "/repo");
+    assertEquals("<settings/>", cache.get(key).getSettings());
+    final File[] files = cacheDir.toFile().listFiles((d, name) -> name.endsWith(".properties"));
+    assertEquals(1, files.length);
+    assertEquals(0, cacheDir.toFile().list((d, name) -> name.endsWith(".tmp")).length);
+
+    // a tampered entry is ignored
+    final Properties props = new Properties();
+    try (InputStream in = Files.newInputStream(files[0].toPath())) {
+      props.load(in);
+    }
+    props.setProperty("settings", "<settings><offline>true</offline></settings>");
+    try (OutputStream out = Files.newOutputStream(files[0].toPath())) {
+      props.store(out, null);
+    }
+    assertNull(cache.get(key));
+
+    // so is a partially written one
+    cache.put(key, "<settings/>", "/repo");
+    final byte[] content = Files.readAllBytes(files[0].toPath());
+    Files.write(files[0].toPath(), Arrays.copyOf(content, content.length - 20));
+    assertNull(cache.get(key));
+  }
+
+  @Test
+  void testShareByContent(@TempDir final Path dir) throws Exception {
+    final Path cacheDir = dir.resolve("cache");
+    final MergedSettingsCache cache = new MergedSettingsCache(cacheDir.toFile(), "3.9.0", logger);
+    cache.put(newKey(cache, Files.createDirectories(dir.resolve("job1"))), "<settings/>", null);
+
+    // another checkout of the same settings
+    final Path job2 = Files.createDirectories(dir.resolve("job2"));
+    final MergedSettingsCache.Entry entry = cache.get(newKey(cache, job2));
+    assertNotNull(entry);
+    assertEquals("<settings/>", entry.getSettings());
+
+    // an edit addresses another entry
+    Files.write(
+        job2.resolve("settings.xml"),
+        "<settings><offline>true</offline></settings>".getBytes(StandardCharsets.UTF_8));
+    final MergedSettingsCache.Key edited =
+        cache.newKey(
+            "user",
+            new SourceFingerprint(new FileSource(job2.resolve("settings.xml").toFile())),
+            Collections.emptyList(),
+            null);
+    assertNull(cache.get(edited));
+    assertEquals(1, cacheDir.toFile().list((d, name) -> name.endsWith(".properties")).length);
+
+    // so does another maven version
+    final MergedSettingsCache other = new MergedSettingsCache(cacheDir.toFile(), "3.9.1", logger);
+    other.put(newKey(other, dir.resolve("job1")), "<settings/>", null);
+    assertEquals(2, cacheDir.toFile().list((d, name) -> name.endsWith(".properties")).length);
+  }
+
+  @Test
+  void testOwnerOnly(@TempDir final Path dir) throws Exception {
+    Assumptions.assumeTrue(dir.getFileSystem().supportedFileAttributeViews().contains("posix"));
+    final Path cacheDir = dir.resolve("cache");
+    final MergedSettingsCache cache = new MergedSettingsCache(cacheDir.toFile(), "3.9.0", logger);
+    final MergedSettingsCache.Key key = newKey(cache, dir);
+    cache.put(key, "<settings/>", null);
+    assertNotNull(cache.get(key));
+
+    assertEquals(
+        "rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(cacheDir)));
+    final File[] files = cacheDir.toFile().listFiles((d, name) -> name.endsWith(".properties"));
+    assertEquals(
+        "rw-------",
+        PosixFilePermissions.toString(Files.getPosixFilePermissions(files[0].toPath())));
+
+    // an entry of another user is refused, only testable by a privileged user
+    final UserPrincipal nobody;
+    try {
+      nobody = dir.getFileSystem().getUserPrincipalLookupService().lookupPrincipalByName("nobody");
+      Files.setOwner(files[0].toPath(), nobody);
+    } catch (final Exception err) {
+      Assumptions.abort("unable to change the owner: " + err);
+      return;
+    }
+    assertNull(cache.get(key));
+  }
+
+  @Test
+  void testLock(@TempDir final Path dir) throws Exception {
+    final MergedSettingsCache cache =
+        new MergedSettingsCache(dir.resolve("cache").toFile(), "3.9.0", logger);
+    final MergedSettingsCache.Key key = newKey(cache, dir);
+
+    try (Closeable lock = cache.lock(key)) {
+      assertNotNull(lock);
+      // already locked by this process, do not wait
+      assertNull(cache.lock(key));
+    }
+    try (Closeable lock = cache.lock(key)) {
+      assertNotNull(lock);
+    }
+  }
+
+  private static MergedSettingsCache.Key newKey(final MergedSettingsCache cache, final Path dir)
+      throws Exception {
+    final Path project = dir.resolve("settings.xml");
+    Files.write(project, "<settings/>".getBytes(StandardCharsets.UTF_8));
+    return cache.newKey(
+        "user",
+        new SourceFingerprint(new FileSource(project.toFile())),
+        Collections.emptyList(),
+        null);
+  }
+}
@@ -0,0 +1,100 @@
+package com.github.gzm55.maven.settings.building;
+
+import static org.apache.maven.cli.MavenCli.MULTIMODULE_PROJECT_DIRECTORY;
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.github.gzm55.sisu.plexus.PlexusJUnit5TestCase;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import org.apache.maven.eventspy.EventSpy;
+import org.apache.maven.settings.Settings;
+import org.apache.maven.settings.building.*;
+import org.codehaus.plexus.ContainerConfiguration;
+import org.codehaus.plexus.PlexusConstants;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Tests {@code ProjectSettingsBuilder}. */
+public class ProjectSettingsBuilderTest extends PlexusJUnit5TestCase {
+  @Override
+  protected void customizeContainerConfiguration(final ContainerConfiguration configuration) {
+    // scan the maven jsr330 compontents
+    configuration.setClassPathScanning(PlexusConstants.SCANNING_INDEX);
+  }
+
+  @Test
+  void testOverrideDefaultBuilder() throws Exception {
+    assertTrue(lookup(SettingsBuilder.class) instanceof ProjectSettingsBuilder);
+  }
+
+  @Test
+  @SuppressWarnings("deprecation")
+  void testBuildMerged() throws Exception {
+    final Properties sysProps = new Properties();
+    sysProps.setProperty(
+        MULTIMODULE_PROJECT_DIRECTORY, getClass().getClassLoader().getResource("normal").getFile());
+    final Properties userProps = new Properties();
+    userProps.setProperty(ProjectSettingsInjector.PROJECT_SETTINGS_BUILDER_KEY, "true");
+    final StringSettingsSource userSource =
+        new StringSettingsSource(
+            "<settings><localRepository>user-defined</localRepository></settings>");
+    final SettingsBuildingRequest request =
+        new DefaultSettingsBuildingRequest()
+            .setSystemProperties(sysProps)
+            .setUserProperties(userProps)
+            .setUserSettingsSource(userSource);
+
+    // the spy leaves the request to the builder
+    lookup(EventSpy.class, "project-settings").onEvent(request);
+    assertSame(userSource, request.getUserSettingsSource());
+
+    final Settings settings = lookup(SettingsBuilder.class).build(request).getEffectiveSettings();
+    assertEquals("user-defined", settings.getLocalRepository());
+    assertEquals(1, settings.getMirrors().size());
+    assertEquals("UK", settings.getMirrors().get(0).getId());
+  }
+
+  @Test
+  void testInterpolateProjectSettings(@TempDir final Path projectDir) throws Exception {
+    Files.createDirectories(projectDir.resolve(".mvn"));
+    Files.write(
+        projectDir.resolve(".mvn/settings.xml"),
+        ("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>\n"
+                + "<settings><mirrors><mirror><id>${mirror.id}</id>"
+                + "<url>https://${mirror.host}/maven2</url><mirrorOf>*</mirrorOf>"
+                + "</mirror></mirrors></settings>")
+            .getBytes(StandardCharsets.ISO_8859_1));
+
+    final Properties sysProps = new Properties();
+    sysProps.setProperty(MULTIMODULE_PROJECT_DIRECTORY, projectDir.toString());
+    sysProps.setProperty("mirror.host", "a&b.example.com");
+    final Properties userProps = new Properties();
+    userProps.setProperty(ProjectSettingsInjector.PROJECT_SETTINGS_BUILDER_KEY, "true");
+    userProps.setProperty("mirror.id", "café");
+
+    final Settings settings =
+        lookup(SettingsBuilder.class)
+            .build(
+                new DefaultSettingsBuildingRequest()
+                    .setSystemProperties(sysProps)
+                    .setUserProperties(userProps))
+            .getEffectiveSettings();
+    assertEquals(1, settings.getMirrors().size());
+    assertEquals("café", settings.getMirrors().get(0).getId());
+    assertEquals("https://a&b.example.com/maven2", settings.getMirrors().get(0).getUrl());
+  }
+
+  @Test
+  void testDisabledBuilder() throws Exception {
+    final Properties sysProps = new Properties();
+    sysProps.setProperty(
+        MULTIMODULE_PROJECT_DIRECTORY, getClass().getClassLoader().getResource("normal").getFile());
+    final Settings settings =
+        lookup(SettingsBuilder.class)
+            .build(new DefaultSettingsBuildingRequest().setSystemProperties(sysProps))
+            .getEffectiveSettings();
+    assertTrue(settings.getMirrors().isEmpty());
+  }
+}
@@ -4,18 +4,39 @@ import static org.apache.maven.cli.MavenCli.MULTIMODULE_PROJECT_DIRECTORY;
 import static org.junit.jupiter.api.Assertions.*;
 
 import com.github.gzm55.sisu.plexus.PlexusJUnit5TestCase;
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.maven.eventspy.EventSpy;
+import org.apache.maven.execution.DefaultMavenExecutionRequest;
+import org.apache.maven.model.Activation;
+import org.apache.maven.model.ActivationProperty;
+import org.apache.maven.model.Profile;
+import org.apache.maven.model.Repository;
 import org.apache.maven.settings.Settings;
 import org.apache.maven.settings.building.*;
 import org.apache.maven.settings.building.SettingsBuildingException;
 import org.apache.maven.settings.io.SettingsReader;
 import org.codehaus.plexus.ContainerConfiguration;
 import org.codehaus.plexus.PlexusConstants;
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.RepositoryEvent;
+import org.eclipse.aether.repository.RemoteRepository;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 /** Tests {@code ProjectSettingsInjector}. */
 public class ProjectSettingsInjectorTest extends PlexusJUnit5TestCase {
@@ -229,4 +250,645 @@ public class ProjectSettingsInjectorTest extends PlexusJUnit5TestCase {
     assertNull(request.getGlobalSettingsFile());
     assertNull(request.getGlobalSettingsSource());
   }
+
+  @Test
+  @SuppressWarnings("deprecation")
+  void testLenientReadOnce() throws Exception {
+    final AtomicInteger opened = new AtomicInteger();
+    final SettingsSource userSource =
+        new SettingsSource() {
+          @Override
+          public InputStream getInputStream() throws IOException {
+            if (opened.incrementAndGet() > 1) {
+              throw new IOException("opened twice");
+            }
+            return new ByteArrayInputStream(
+                "<settings><unknown/><localRepository>user-defined</localRepository></settings>"
+                    .getBytes(StandardCharsets.UTF_8));
+          }
+
+          @Override
+          public String getLocation() {
+            return "once";
+          }
+        };
+    final Properties sysProps = new Properties();
+    sysProps.setProperty(
+        MULTIMODULE_PROJECT_DIRECTORY, getClass().getClassLoader().getResource("normal").getFile());
+    final Properties userProps = new Properties();
+    userProps.setProperty(ProjectSettingsInjector.PROJECT_SETTINGS_MEMORY_CACHE_KEY, "false");
+    final SettingsBuildingRequest request =
+        new DefaultSettingsBuildingRequest()
+            .setSystemProperties(sysProps)
+            .setUserProperties(userProps)
+            .setUserSettingsSource(userSource);
+
+    // the strict parse fails on the unknown element, the lenient one reuses the buffered content
+    lookup(EventSpy.class, "project-settings").onEvent(request);
+    assertEquals(1, opened.get());
+
+    final Map<String, ?> options =
+        Collections.singletonMap(SettingsReader.IS_STRICT, Boolean.FALSE);
+    final Settings settings =
+        lookup(SettingsReader.class)
+            .read(request.getUserSettingsSource().getInputStream(), options);
+    assertEquals("user-defined", settings.getLocalRepository());
+    assertEquals("UK", settings.getMirrors().get(0).getId());
+  }
+
+  @Test
+  @SuppressWarnings("deprecation")
+  void testSettingsCache(@TempDir final Path tempDir) throws Exception {
+    final Path projectDir = tempDir.resolve("project");
+    final Path cacheDir = tempDir.resolve("cache");
+    final Path projectSettings = projectDir.resolve(".mvn/settings.xml");
+    Files.createDirectories(projectSettings.getParent());
+    Files.write(
+        projectSettings,
+        "<settings><mirrors><mirror><id>UK</id><url>u</url><mirrorOf>central</mirrorOf></mirror></mirrors></settings>"
+            .getBytes(StandardCharsets.UTF_8));
+
+    final Properties sysProps = new Properties();
+    sysProps.setProperty(MULTIMODULE_PROJECT_DIRECTORY, projectDir.toString());
+    final Properties userProps = new Properties();
+    userProps.setProperty(ProjectSettingsInjector.PROJECT_SETTINGS_CACHE_KEY, "true");
+    userProps.setProperty(ProjectSettingsInjector.PROJECT_SETTINGS_MEMORY_CACHE_KEY, "false");
+    userProps.setProperty(
+        ProjectSettingsInjector.PROJECT_SETTINGS_CACHE_DIR_KEY, cacheDir.toString());
+
+    // miss, and store the merged settings
+    final ProjectSettingsLoader loader = lookup(ProjectSettingsLoader.class);
+    assertEquals("UK", injectAndRead(sysProps, userProps).getMirrors().get(0).getId());
+    final File[] entries = cacheDir.toFile().listFiles((dir, name) -> name.endsWith(".properties"));
+    assertNotNull(entries);
+    assertEquals(1, entries.length);
+
+    // hit, the stored entry is returned without reading the project settings
+    assertEquals("UK", injectAndRead(sysProps, userProps).getMirrors().get(0).getId());
+    assertEquals(1, loader.getMetrics().getCount(InjectionMetrics.CACHE_HITS));
+
+    // a tampered entry fails the checksum, and is merged again
+    final Properties entry = new Properties();
+    try (InputStream in = Files.newInputStream(entries[0].toPath())) {
+      entry.load(in);
+    }
+    entry.setProperty(
+        "settings",
+        "<settings><mirrors><mirror><id>CACHED</id><url>u</url><mirrorOf>central</mirrorOf></mirror></mirrors></settings>");
+    try (OutputStream out = Files.newOutputStream(entries[0].toPath())) {
+      entry.store(out, null);
+    }
+    assertEquals("UK", injectAndRead(sysProps, userProps).getMirrors().get(0).getId());
+    assertEquals(0, loader.getMetrics().getCount(InjectionMetrics.CACHE_HITS));
+    assertEquals("UK", injectAndRead(sysProps, userProps).getMirrors().get(0).getId());
+    assertEquals(1, loader.getMetrics().getCount(InjectionMetrics.CACHE_HITS));
+
+    // invalidated by a changed project settings
+    Files.write(
+        projectSettings,
+        "<settings><mirrors><mirror><id>USA</id><url>u</url><mirrorOf>central</mirrorOf></mirror></mirrors></settings>"
+            .getBytes(StandardCharsets.UTF_8));
+    assertEquals("USA", injectAndRead(sysProps, userProps).getMirrors().get(0).getId());
+    assertEquals("USA", injectAndRead(sysProps, userProps).getMirrors().get(0).getId());
+  }
+
+  @Test
+  @SuppressWarnings("deprecation")
+  void testSettingsCacheCredentials(@TempDir final Path tempDir) throws Exception {
+    final Path projectDir = tempDir.resolve("project");
+    final Path cacheDir = tempDir.resolve("cache");
+    final Path projectSettings = projectDir.resolve(".mvn/settings.xml");
+    Files.createDirectories(projectSettings.getParent());
+    Files.write(
+        projectSettings,
+        "<settings><servers><server><id>corp</id><configuration><a>1</a></configuration></server></servers></settings>"
+            .getBytes(StandardCharsets.UTF_8));
+    final Path userSettings = tempDir.resolve("settings.xml");
+
+    final Properties sysProps = new Properties();
+    sysProps.setProperty(MULTIMODULE_PROJECT_DIRECTORY, projectDir.toString());
+    final Properties userProps = new Properties();
+    userProps.setProperty(ProjectSettingsInjector.PROJECT_SETTINGS_CACHE_KEY, "true");
+    userProps.setProperty(ProjectSettingsInjector.PROJECT_SETTINGS_MEMORY_CACHE_KEY, "false");
+    userProps.setProperty(
+        ProjectSettingsInjector.PROJECT_SETTINGS_CACHE_DIR_KEY, cacheDir.toString());
+
+    final ProjectSettingsLoader loader = lookup(ProjectSettingsLoader.class);
+    final String[] secrets = {
+      "<proxies><proxy><id>proxy</id><host>proxy.corp</host><port>3128</port>"
+          + "<username>px</username><password>pxs3cret</password></proxy></proxies>",
+      "<servers><server><id>corp</id><username>dev</username><password>s3cret</password></server></servers>",
+      "<servers><server><id>vendor</id><configuration><httpHeaders><property><name>Authorization</name>"
+          + "<value>Bearer t0ken</value></property></httpHeaders></configuration></server></servers>",
+    };
+    for (final String secret : secrets) {
+      Files.write(
+          userSettings, ("<settings>" + secret + "</settings>").getBytes(StandardCharsets.UTF_8));
+      for (int i = 0; i < 2; ++i) {
+        final SettingsBuildingRequest request =
+            new DefaultSettingsBuildingRequest()
+                .setUserSettingsFile(userSettings.toFile())
+                .setSystemProperties(sysProps)
+                .setUserProperties(userProps);
+        lookup(EventSpy.class, "project-settings").onEvent(request);
+        final String settings =
+            ((StringSettingsSource) request.getUserSettingsSource()).getContent();
+        assertTrue(settings.contains("s3cret") || settings.contains("t0ken"));
+        // merged again on each build
+        assertEquals(0, loader.getMetrics().getCount(InjectionMetrics.CACHE_HITS));
+      }
+    }
+
+    // the stored entries never contain the secrets
+    final File[] entries = cacheDir.toFile().listFiles((dir, name) -> name.endsWith(".properties"));
+    assertEquals(secrets.length, entries.length);
+    for (final File entry : entries) {
+      final String content = new String(Files.readAllBytes(entry.toPath()), StandardCharsets.UTF_8);
+      assertFalse(content.contains("s3cret"));
+      assertFalse(content.contains("t0ken"));
+      assertTrue(content.contains("skipped=true"));
+    }
+
+    // the settings without any secret are cached
+    Files.write(
+        userSettings,
+        "<settings><proxies><proxy><id>proxy</id><host>proxy.corp</host></proxy></proxies></settings>"
+            .getBytes(StandardCharsets.UTF_8));
+    for (int i = 0; i < 2; ++i) {
+      lookup(EventSpy.class, "project-settings")
+          .onEvent(
+              new DefaultSettingsBuildingRequest()
+                  .setUserSettingsFile(userSettings.toFile())
+                  .setSystemProperties(sysProps)
+                  .setUserProperties(userProps));
+      assertEquals(i, loader.getMetrics().getCount(InjectionMetrics.CACHE_HITS));
+    }
+  }
+
+  @Test
+  void testMetrics(@TempDir final Path tempDir) throws Exception {
+    final Properties sysProps = new Properties();
+    sysProps.setProperty(
+        MULTIMODULE_PROJECT_DIRECTORY, getClass().getClassLoader().getResource("normal").getFile());
+    final Properties userProps = new Properties();
+    userProps.setProperty(ProjectSettingsInjector.PROJECT_SETTINGS_MEMORY_CACHE_KEY, "false");
+    final Path metricsFile = tempDir.resolve("metrics/settings.json");
+    userProps.setProperty(
+        ProjectSettingsInjector.PROJECT_SETTINGS_METRICS_KEY, metricsFile.toString());
+
+    final EventSpy spy = lookup(EventSpy.class, "project-settings");
+    spy.onEvent(
+        new DefaultMavenExecutionRequest()
+            .setSystemProperties(sysProps)
+            .setUserProperties(userProps));
+    spy.onEvent(
+        new DefaultSettingsBuildingRequest()
+            .setSystemProperties(sysProps)
+            .setUserProperties(userProps));
+    spy.close();
+
+    final String json = new String(Files.readAllBytes(metricsFile), StandardCharsets.UTF_8);
+    assertTrue(json.contains("\"readProject\": "));
+    assertTrue(json.contains("\"merge\": "));
+    assertTrue(json.contains("\"mirrors\": 1"));
+  }
+
+  @Test
+  @SuppressWarnings("deprecation")
+  void testDetachAfterRequest() throws Exception {
+    final Properties sysProps = new Properties();
+    sysProps.setProperty(
+        MULTIMODULE_PROJECT_DIRECTORY, getClass().getClassLoader().getResource("normal").getFile());
+
+    final EventSpy spy = lookup(EventSpy.class, "project-settings");
+    spy.onEvent(new DefaultSettingsBuildingRequest().setSystemProperties(sysProps));
+    spy.onEvent(
+        new SettingsBuildingResult() {
+          @Override
+          public Settings getEffectiveSettings() {
+            return new Settings();
+          }
+
+          @Override
+          public List<SettingsProblem> getProblems() {
+            return new ArrayList<>();
+          }
+        });
+    spy.onEvent(new DefaultMavenExecutionRequest().setSystemProperties(sysProps));
+
+    // detached, the following settings request is not touched
+    final SettingsBuildingRequest request =
+        new DefaultSettingsBuildingRequest().setSystemProperties(sysProps);
+    spy.onEvent(request);
+    assertNull(request.getUserSettingsSource());
+
+    // attached again in a new session
+    spy.init(null);
+    spy.onEvent(request);
+    assertTrue(request.getUserSettingsSource() instanceof StringSettingsSource);
+  }
+
+  @Test
+  void testFanoutReport(@TempDir final Path tempDir) throws Exception {
+    final Properties sysProps = new Properties();
+    sysProps.setProperty(
+        MULTIMODULE_PROJECT_DIRECTORY, getClass().getClassLoader().getResource("normal").getFile());
+    final Properties userProps = new Properties();
+    final Path reportFile = tempDir.resolve("fanout.json");
+    userProps.setProperty(
+        ProjectSettingsInjector.PROJECT_SETTINGS_FANOUT_REPORT_KEY, reportFile.toString());
+
+    final EventSpy spy = lookup(EventSpy.class, "project-settings");
+    spy.onEvent(
+        new DefaultSettingsBuildingRequest()
+            .setSystemProperties(sysProps)
+            .setUserProperties(userProps));
+    spy.onEvent(
+        new SettingsBuildingResult() {
+          @Override
+          public Settings getEffectiveSettings() {
+            return new Settings();
+          }
+
+          @Override
+          public List<SettingsProblem> getProblems() {
+            return new ArrayList<>();
+          }
+        });
+    // the profiles activated by a property are declared too
+    userProps.setProperty("corp", "true");
+    final DefaultMavenExecutionRequest executionRequest = new DefaultMavenExecutionRequest();
+    executionRequest.setSystemProperties(sysProps).setUserProperties(userProps);
+    executionRequest.addProfile(newPropertyProfile("by-property", "corp", "corp-by-property"));
+    executionRequest.addProfile(newPropertyProfile("inactive", "absent", "corp-inactive"));
+    spy.onEvent(executionRequest);
+
+    // still recording the repository events after the request
+    final RemoteRepository repository =
+        new RemoteRepository.Builder("corp", "default", "https://repo.corp").build();
+    spy.onEvent(
+        new RepositoryEvent.Builder(
+                new DefaultRepositorySystemSession(),
+                RepositoryEvent.EventType.METADATA_DOWNLOADING)
+            .setRepository(repository)
+            .build());
+    spy.close();
+
+    final String json = new String(Files.readAllBytes(reportFile), StandardCharsets.UTF_8);
+    assertTrue(json.contains("\"id\": \"corp\""));
+    assertTrue(json.contains("\"lookups\": 1"));
+    assertTrue(
+        json.contains(
+            "\"id\": \"corp-by-property\", \"url\": \"https://repo.corp/maven\", \"declared\": true"));
+    assertFalse(json.contains("corp-inactive"));
+  }
+
+  @Test
+  void testRepositoryEventsWhileSwitching(@TempDir final Path tempDir) throws Exception {
+    final Properties sysProps = new Properties();
+    sysProps.setProperty(
+        MULTIMODULE_PROJECT_DIRECTORY, getClass().getClassLoader().getResource("normal").getFile());
+    final Properties userProps = new Properties();
+    userProps.setProperty(
+        ProjectSettingsInjector.PROJECT_SETTINGS_FANOUT_REPORT_KEY,
+        tempDir.resolve("fanout.json").toString());
+
+    final EventSpy spy = lookup(EventSpy.class, "project-settings");
+    final RepositoryEvent event =
+        new RepositoryEvent.Builder(
+                new DefaultRepositorySystemSession(),
+                RepositoryEvent.EventType.METADATA_DOWNLOADING)
+            .setRepository(
+                new RemoteRepository.Builder("corp", "default", "https://repo.corp").build())
+            .build();
+    final AtomicBoolean done = new AtomicBoolean();
+    final List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+    final List<Thread> resolvers = new ArrayList<>();
+    for (int i = 0; i < 4; ++i) {
+      final Thread resolver =
+          new Thread(
+              () -> {
+                try {
+                  while (!done.get()) {
+                    spy.onEvent(event);
+                  }
+                } catch (final Throwable err) {
+                  errors.add(err);
+                }
+              });
+      resolver.start();
+      resolvers.add(resolver);
+    }
+    try {
+      // the resolver threads deliver the events while the build thread switches the states
+      for (int i = 0; i < 200 && errors.isEmpty(); ++i) {
+        spy.init(null);
+        spy.onEvent(
+            new DefaultSettingsBuildingRequest()
+                .setSystemProperties(sysProps)
+                .setUserProperties(userProps));
+        spy.onEvent(
+            new SettingsBuildingResult() {
+              @Override
+              public Settings getEffectiveSettings() {
+                return new Settings();
+              }
+
+              @Override
+              public List<SettingsProblem> getProblems() {
+                return new ArrayList<>();
+              }
+            });
+        spy.onEvent(
+            new DefaultMavenExecutionRequest()
+                .setSystemProperties(sysProps)
+                .setUserProperties(userProps));
+      }
+    } finally {
+      done.set(true);
+      for (final Thread resolver : resolvers) {
+        resolver.join();
+      }
+    }
+    assertEquals(Collections.emptyList(), errors);
+  }
+
+  private static Profile newPropertyProfile(
+      final String id, final String property, final String repositoryId) {
+    final ActivationProperty activationProperty = new ActivationProperty();
+    activationProperty.setName(property);
+    final Activation activation = new Activation();
+    activation.setProperty(activationProperty);
+    final Repository repository = new Repository();
+    repository.setId(repositoryId);
+    repository.setUrl("https://repo.corp/maven");
+    final Profile profile = new Profile();
+    profile.setId(id);
+    profile.setActivation(activation);
+    profile.addRepository(repository);
+    return profile;
+  }
+
+  @Test
+  void testCascade(@TempDir final Path tempDir) throws Exception {
+    final Path area = tempDir.resolve("area");
+    final Path project = area.resolve("team/project");
+    final Path sibling = area.resolve("team/sibling");
+    writeSettings(
+        tempDir,
+        "<settings><mirrors><mirror><id>UK</id><url>root</url><mirrorOf>central</mirrorOf></mirror></mirrors>"
+            + "<servers><server><id>root</id></server></servers></settings>");
+    writeSettings(
+        area,
+        "<settings><mirrors><mirror><id>UK</id><url>area</url><mirrorOf>central</mirrorOf></mirror></mirrors>"
+            + "<activeProfiles><activeProfile>area</activeProfile></activeProfiles></settings>");
+    writeSettings(
+        project,
+        "<settings><mirrors><mirror><id>CN</id><url>project</url><mirrorOf>*</mirrorOf></mirror></mirrors></settings>");
+    writeSettings(sibling, "<settings/>");
+
+    final Properties userProps = new Properties();
+    userProps.setProperty(
+        ProjectSettingsInjector.PROJECT_SETTINGS_CASCADE_ROOT_KEY, tempDir.toString());
+    final Properties sysProps = new Properties();
+    sysProps.setProperty(MULTIMODULE_PROJECT_DIRECTORY, project.toString());
+
+    Settings settings = injectAndRead(sysProps, userProps);
+    assertEquals(2, settings.getMirrors().size());
+    assertEquals("CN", settings.getMirrors().get(0).getId());
+    assertEquals("area", settings.getMirrors().get(1).getUrl());
+    assertEquals("root", settings.getServers().get(0).getId());
+    assertEquals(Collections.singletonList("area"), settings.getActiveProfiles());
+
+    // the sibling project reuses the merged upper layers
+    final Properties siblingProps = new Properties();
+    siblingProps.setProperty(MULTIMODULE_PROJECT_DIRECTORY, sibling.toString());
+    settings = injectAndRead(siblingProps, userProps);
+    assertEquals("area", settings.getMirrors().get(0).getUrl());
+    final InjectionMetrics metrics = lookup(ProjectSettingsLoader.class).getMetrics();
+    assertEquals(3, metrics.getCount(InjectionMetrics.LAYERS));
+    assertEquals(2, metrics.getCount(InjectionMetrics.CACHED_LAYERS));
+
+    // a changed outer layer invalidates all the cached merges
+    writeSettings(
+        tempDir, "<settings><servers><server><id>changed-root</id></server></servers></settings>");
+    settings = injectAndRead(sysProps, userProps);
+    assertEquals("changed-root", settings.getServers().get(0).getId());
+
+    // layers out of the root are ignored
+    userProps.setProperty(ProjectSettingsInjector.PROJECT_SETTINGS_CASCADE_ROOT_KEY, "..");
+    settings = injectAndRead(sysProps, userProps);
+    assertEquals(1, settings.getMirrors().size());
+    assertTrue(settings.getServers().isEmpty());
+  }
+
+  @Test
+  @SuppressWarnings("deprecation")
+  void testSettingsFragments(@TempDir final Path tempDir) throws Exception {
+    final Path fragments = tempDir.resolve(".mvn/settings.d");
+    Files.createDirectories(fragments);
+    writeSettings(
+        tempDir,
+        "<settings><mirrors><mirror><id>A</id><url>main</url><mirrorOf>central</mirrorOf></mirror></mirrors></settings>");
+    Files.write(
+        fragments.resolve("10-a.xml"),
+        ("<settings><mirrors><mirror><id>A</id><url>a</url><mirrorOf>central</mirrorOf></mirror>"
+                + "<mirror><id>B</id><url>a</url><mirrorOf>b</mirrorOf></mirror></mirrors></settings>")
+            .getBytes(StandardCharsets.UTF_8));
+    Files.write(
+        fragments.resolve("20-b.xml"),
+        "<settings><mirrors><mirror><id>B</id><url>b</url><mirrorOf>b</mirrorOf></mirror></mirrors></settings>"
+            .getBytes(StandardCharsets.UTF_8));
+    Files.write(fragments.resolve("README"), "not a fragment".getBytes(StandardCharsets.UTF_8));
+
+    final Properties sysProps = new Properties();
+    sysProps.setProperty(MULTIMODULE_PROJECT_DIRECTORY, tempDir.toString());
+    final Properties userProps = new Properties();
+    userProps.setProperty(ProjectSettingsInjector.PROJECT_SETTINGS_MEMORY_CACHE_KEY, "false");
+
+    Settings settings = injectAndRead(sysProps, userProps);
+    assertEquals(2, settings.getMirrors().size());
+    assertEquals("main", settings.getMirrors().get(0).getUrl());
+    assertEquals("b", settings.getMirrors().get(1).getUrl());
+
+    // unchanged files are not read again
+    final ProjectSettingsLoader loader = lookup(ProjectSettingsLoader.class);
+    injectAndRead(sysProps, userProps);
+    assertEquals(3, loader.getMetrics().getCount(InjectionMetrics.CACHED_LAYERS));
+
+    // only the changed fragment is read, and its problems are located
+    Files.write(
+        fragments.resolve("20-b.xml"),
+        "<settings><unknown/><mirrors><mirror><id>B</id><url>changed</url><mirrorOf>b</mirrorOf></mirror></mirrors></settings>"
+            .getBytes(StandardCharsets.UTF_8));
+    final SettingsBuildingRequest request =
+        new DefaultSettingsBuildingRequest()
+            .setSystemProperties(sysProps)
+            .setUserProperties(userProps);
+    final List<SettingsProblem> problems = loader.inject(request);
+    assertEquals(2, loader.getMetrics().getCount(InjectionMetrics.CACHED_LAYERS));
+    assertEquals(1, problems.size());
+    assertEquals(fragments.resolve("20-b.xml").toString(), problems.get(0).getSource());
+    assertTrue(
+        ((StringSettingsSource) request.getUserSettingsSource()).getContent().contains("changed"));
+  }
+
+  @Test
+  void testSettingsSnapshot(@TempDir final Path tempDir) throws Exception {
+    writeSettings(
+        tempDir,
+        "<settings><mirrors><mirror><id>UK</id><url>u</url><mirrorOf>central</mirrorOf></mirror></mirrors></settings>");
+
+    final Properties sysProps = new Properties();
+    sysProps.setProperty(MULTIMODULE_PROJECT_DIRECTORY, tempDir.toString());
+    final Properties userProps = new Properties();
+    userProps.setProperty(ProjectSettingsInjector.PROJECT_SETTINGS_SNAPSHOT_KEY, "true");
+    userProps.setProperty(ProjectSettingsInjector.PROJECT_SETTINGS_MEMORY_CACHE_KEY, "false");
+
+    final ProjectSettingsLoader loader = lookup(ProjectSettingsLoader.class);
+    assertEquals("UK", injectAndRead(sysProps, userProps).getMirrors().get(0).getId());
+    assertEquals(0, loader.getMetrics().getCount(InjectionMetrics.SNAPSHOT_HITS));
+    assertEquals("UK", injectAndRead(sysProps, userProps).getMirrors().get(0).getId());
+    assertEquals(1, loader.getMetrics().getCount(InjectionMetrics.SNAPSHOT_HITS));
+
+    // fall back to the xml
+    writeSettings(
+        tempDir,
+        "<settings><mirrors><mirror><id>USA</id><url>u</url><mirrorOf>central</mirrorOf></mirror></mirrors></settings>");
+    assertEquals("USA", injectAndRead(sysProps, userProps).getMirrors().get(0).getId());
+    assertEquals(0, loader.getMetrics().getCount(InjectionMetrics.SNAPSHOT_HITS));
+  }
+
+  @Test
+  void testReadAhead(@TempDir final Path tempDir) throws Exception {
+    writeSettings(
+        tempDir,
+        "<settings><mirrors><mirror><id>UK</id><url>u</url><mirrorOf>central</mirrorOf></mirror></mirrors></settings>");
+
+    final Properties sysProps = new Properties();
+    sysProps.setProperty(MULTIMODULE_PROJECT_DIRECTORY, tempDir.toString());
+    final Properties userProps = new Properties();
+    userProps.setProperty(ProjectSettingsInjector.PROJECT_SETTINGS_MEMORY_CACHE_KEY, "false");
+    final Map<String, Object> data = new HashMap<>();
+    data.put("systemProperties", sysProps);
+    data.put("userProperties", userProps);
+
+    final EventSpy spy = lookup(EventSpy.class, "project-settings");
+    final ProjectSettingsLoader loader = lookup(ProjectSettingsLoader.class);
+    spy.init(() -> data);
+    assertEquals("UK", injectAndRead(sysProps, userProps).getMirrors().get(0).getId());
+    assertEquals(1, loader.getMetrics().getCount(InjectionMetrics.READ_AHEAD_LAYERS));
+
+    // a file changed since read ahead is read again
+    spy.init(() -> data);
+    writeSettings(
+        tempDir,
+        "<settings><mirrors><mirror><id>USA</id><url>u</url><mirrorOf>central</mirrorOf></mirror></mirrors></settings>");
+    assertEquals("USA", injectAndRead(sysProps, userProps).getMirrors().get(0).getId());
+    assertEquals(0, loader.getMetrics().getCount(InjectionMetrics.READ_AHEAD_LAYERS));
+
+    // the problems are reported the same
+    writeSettings(tempDir, "<settings><mirrors></settings>");
+    spy.init(() -> data);
+    final SettingsBuildingRequest request =
+        new DefaultSettingsBuildingRequest()
+            .setSystemProperties(sysProps)
+            .setUserProperties(userProps);
+    final SettingsBuildingException err =
+        assertThrows(SettingsBuildingException.class, () -> spy.onEvent(request));
+    assertEquals(
+        tempDir.resolve(".mvn/settings.xml").toString(), err.getProblems().get(0).getSource());
+    assertEquals(1, loader.getMetrics().getCount(InjectionMetrics.READ_AHEAD_LAYERS));
+  }
+
+  @Test
+  void testReadConcurrently(@TempDir final Path tempDir) throws Exception {
+    writeSettings(
+        tempDir,
+        "<settings><unknown/><mirrors><mirror><id>UK</id><url>u</url><mirrorOf>central</mirrorOf></mirror></mirrors></settings>");
+    final Path userSettings = tempDir.resolve("user-settings.xml");
+    Files.write(
+        userSettings,
+        "<settings><unknown/><servers><server><id>user</id></server></servers></settings>"
+            .getBytes(StandardCharsets.UTF_8));
+
+    final Properties sysProps = new Properties();
+    sysProps.setProperty(MULTIMODULE_PROJECT_DIRECTORY, tempDir.toString());
+    final Properties userProps = new Properties();
+    userProps.setProperty(ProjectSettingsInjector.PROJECT_SETTINGS_MEMORY_CACHE_KEY, "false");
+
+    // the problems are in the order of reading one after another
+    final SettingsBuildingRequest request =
+        new DefaultSettingsBuildingRequest()
+            .setSystemProperties(sysProps)
+            .setUserProperties(userProps)
+            .setUserSettingsFile(userSettings.toFile());
+    final long start = System.nanoTime();
+    final List<SettingsProblem> problems = lookup(ProjectSettingsLoader.class).inject(request);
+    final long elapsed = System.nanoTime() - start;
+    assertEquals(2, problems.size());
+    assertEquals(tempDir.resolve(".mvn/settings.xml").toString(), problems.get(0).getSource());
+    assertEquals(userSettings.toString(), problems.get(1).getSource());
+    @SuppressWarnings("deprecation")
+    final String content = ((StringSettingsSource) request.getUserSettingsSource()).getContent();
+    assertTrue(content.contains("<id>UK</id>"));
+    assertTrue(content.contains("<id>user</id>"));
+
+    // the overlapping phases are not summed up
+    final long total = lookup(ProjectSettingsLoader.class).getMetrics().getTotal();
+    assertTrue(0L < total && total <= elapsed);
+  }
+
+  @Test
+  @SuppressWarnings("deprecation")
+  void testReadSingleFileSequentially(@TempDir final Path tempDir) throws Exception {
+    writeSettings(tempDir, "<settings/>");
+    final List<String> readers = Collections.synchronizedList(new ArrayList<>());
+    final SettingsSource userSource =
+        new SettingsSource() {
+          @Override
+          public InputStream getInputStream() {
+            readers.add(Thread.currentThread().getName());
+            return new ByteArrayInputStream("<settings/>".getBytes(StandardCharsets.UTF_8));
+          }
+
+          @Override
+          public String getLocation() {
+            return "user";
+          }
+        };
+    final Properties sysProps = new Properties();
+    sysProps.setProperty(MULTIMODULE_PROJECT_DIRECTORY, tempDir.toString());
+    final Properties userProps = new Properties();
+    userProps.setProperty(ProjectSettingsInjector.PROJECT_SETTINGS_MEMORY_CACHE_KEY, "false");
+
+    // no thread is started for a single project settings file
+    lookup(ProjectSettingsLoader.class)
+        .inject(
+            new DefaultSettingsBuildingRequest()
+                .setSystemProperties(sysProps)
+                .setUserProperties(userProps)
+                .setUserSettingsSource(userSource));
+    assertEquals(Collections.singletonList(Thread.currentThread().getName()), readers);
+  }
+
+  private static void writeSettings(final Path dir, final String settings) throws IOException {
+    final Path file = dir.resolve(".mvn/settings.xml");
+    Files.createDirectories(file.getParent());
+    Files.write(file, settings.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private Settings injectAndRead(final Properties sysProps, final Properties userProps)
+      throws Exception {
+    final SettingsBuildingRequest request =
+        new DefaultSettingsBuildingRequest()
+            .setSystemProperties(sysProps)
+            .setUserProperties(userProps);
+    lookup(EventSpy.class, "project-settings").onEvent(request);
+
+    final Map<String, ?> options =
+        Collections.singletonMap(SettingsReader.IS_STRICT, Boolean.FALSE);
+    return lookup(SettingsReader.class)
+        .read(request.getUserSettingsSource().getInputStream(), options);
+  }
 }
@@ -0,0 +1,164 @@
+package com.github.gzm55.maven.settings.building;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.apache.maven.execution.DefaultMavenExecutionRequest;
+import org.apache.maven.execution.DefaultMavenExecutionResult;
+import org.apache.maven.execution.MavenExecutionRequest;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Profile;
+import org.apache.maven.model.Repository;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.resolution.ArtifactResolutionException;
+import org.eclipse.aether.resolution.ArtifactResult;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Tests {@code RemoteParentPrefetch}. */
+public class RemoteParentPrefetchTest {
+  private final Logger logger = new ConsoleLogger(Logger.LEVEL_DISABLED, "test");
+
+  private final List<String> resolved = new CopyOnWriteArrayList<>();
+
+  @Test
+  void testPrefetchParentChains(@TempDir final Path dir) throws Exception {
+    final Path remote = dir.resolve("remote");
+    writePom(remote.resolve("root-1.pom"), "corp", "root", "1", null);
+    writePom(remote.resolve("parent-2.pom"), "corp", "parent", "2", "corp:root:1");
+    writePom(remote.resolve("other-3.pom"), "corp", "other", "3", "corp:root:1");
+
+    // a reactor with a local aggregator parent and modules of two remote parents
+    final Path project = dir.resolve("project");
+    writePom(
+        project.resolve("pom.xml"),
+        "corp",
+        "aggregator",
+        "4",
+        "corp:parent:2",
+        "<modules><module>a</module><module>b</module><module>c</module></modules>");
+    writePom(project.resolve("a/pom.xml"), null, "a", null, "corp:aggregator:4");
+    writePom(project.resolve("b/pom.xml"), "corp", "b", "4", "corp:other:3");
+    writePom(project.resolve("c/pom.xml"), "corp", "c", "4", "corp:missing:5");
+
+    final RemoteParentPrefetch prefetch =
+        new RemoteParentPrefetch(
+            newRepositorySystem(remote), null, Collections.emptyList(), 4, logger);
+    assertEquals(3, prefetch.prefetch(project.resolve("pom.xml").toFile()));
+    assertEquals(1, prefetch.getFailed());
+
+    // the reactor parent is not resolved, and the shared root only once
+    assertEquals(4, resolved.size());
+    assertFalse(resolved.contains("corp:aggregator:pom:4"));
+    assertEquals(1, Collections.frequency(resolved, "corp:root:pom:1"));
+  }
+
+  @Test
+  @SuppressWarnings("deprecation")
+  void testActiveProfileRepositories() {
+    final MavenExecutionRequest request = new DefaultMavenExecutionRequest();
+    request.addProfile(newProfile("by-property", "corp"));
+    request.addProfile(newProfile("inactive", "other"));
+    final MavenSession session =
+        new MavenSession(
+            null, new DefaultRepositorySystemSession(), request, new DefaultMavenExecutionResult());
+    final RepositorySystem repositorySystem =
+        (RepositorySystem)
+            Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class<?>[] {RepositorySystem.class},
+                (proxy, method, args) -> {
+                  assertEquals("newResolutionRepositories", method.getName());
+                  return args[1];
+                });
+
+    // the profiles selected by the caller, e.g. activated by a property
+    final List<RemoteRepository> repositories =
+        RemoteParentPrefetch.getRepositories(
+            repositorySystem, session, Arrays.asList("by-property", "absent"));
+    assertEquals(1, repositories.size());
+    assertEquals("corp", repositories.get(0).getId());
+  }
+
+  private static Profile newProfile(final String id, final String repositoryId) {
+    final Repository repository = new Repository();
+    repository.setId(repositoryId);
+    repository.setUrl("https://repo.corp/" + repositoryId);
+    final Profile profile = new Profile();
+    profile.setId(id);
+    profile.addRepository(repository);
+    return profile;
+  }
+
+  /** A repository system resolving the poms from a flat directory. */
+  private RepositorySystem newRepositorySystem(final Path remote) {
+    return (RepositorySystem)
+        Proxy.newProxyInstance(
+            getClass().getClassLoader(),
+            new Class<?>[] {RepositorySystem.class},
+            (proxy, method, args) -> {
+              assertEquals("resolveArtifact", method.getName());
+              final ArtifactRequest request = (ArtifactRequest) args[1];
+              final Artifact artifact = request.getArtifact();
+              resolved.add(artifact.toString());
+              final File file =
+                  remote
+                      .resolve(artifact.getArtifactId() + '-' + artifact.getVersion() + ".pom")
+                      .toFile();
+              final ArtifactResult result = new ArtifactResult(request);
+              if (!file.isFile()) {
+                throw new ArtifactResolutionException(Collections.singletonList(result));
+              }
+              result.setArtifact(artifact.setFile(file));
+              return result;
+            });
+  }
+
+  private static void writePom(
+      final Path pom,
+      final String groupId,
+      final String artifactId,
+      final String version,
+      final String parent,
+      final String... extra)
+      throws Exception {
+    final StringBuilder sb = new StringBuilder("<project><modelVersion>4.0.0</modelVersion>");
+    if (null != parent) {
+      final String[] gav = parent.split(":");
+      sb.append("<parent><groupId>")
+          .append(gav[0])
+          .append("</groupId><artifactId>")
+          .append(gav[1])
+          .append("</artifactId><version>")
+          .append(gav[2])
+          .append("</version></parent>");
+    }
+    if (null != groupId) {
+      sb.append("<groupId>").append(groupId).append("</groupId>");
+    }
+    sb.append("<artifactId>").append(artifactId).append("</artifactId>");
+    if (null != version) {
+      sb.append("<version>").append(version).append("</version>");
+    }
+    for (final String s : extra) {
+      sb.append(s);
+    }
+    sb.append("</project>");
+    Files.createDirectories(pom.getParent());
+    Files.write(pom, sb.toString().getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,205 @@
+package com.github.gzm55.maven.settings.building;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.SyncContext;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.metadata.Metadata;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Tests {@code RemoteParentSync}. */
+public class RemoteParentSyncTest {
+  private final Logger logger = new ConsoleLogger(Logger.LEVEL_DISABLED, "test");
+
+  @Test
+  void testSyncSharedParents(@TempDir final Path localRepo) throws Exception {
+    createFlagFiles(localRepo);
+    assertEquals(4, new RemoteParentSync(localRepo.toFile(), 1, false, logger).sync(setUp()));
+    assertFalse(Files.exists(localRepo.resolve("corp/root/1/_remote.repositories")));
+    assertFalse(Files.exists(localRepo.resolve("corp/parent/2/parent-2.pom.lastUpdated")));
+    assertTrue(Files.exists(localRepo.resolve("corp/local/3/_remote.repositories")));
+
+    // nothing left to remove
+    assertEquals(0, new RemoteParentSync(localRepo.toFile(), 1, false, logger).sync(setUp()));
+  }
+
+  @Test
+  void testSyncParallel(@TempDir final Path localRepo) throws Exception {
+    createFlagFiles(localRepo);
+    assertEquals(4, new RemoteParentSync(localRepo.toFile(), 4, false, logger).sync(setUp()));
+    assertFalse(Files.exists(localRepo.resolve("corp/root/1/root-1.pom.lastUpdated")));
+    assertFalse(Files.exists(localRepo.resolve("corp/parent/2/_remote.repositories")));
+  }
+
+  @Test
+  void testSkipJournaled(@TempDir final Path localRepo) throws Exception {
+    createFlagFiles(localRepo);
+    final Path rootPom = localRepo.resolve("corp/root/1/root-1.pom");
+    Files.write(rootPom, "<project/>".getBytes(StandardCharsets.UTF_8));
+    Files.write(
+        localRepo.resolve("corp/parent/2/parent-2.pom"),
+        "<project/>".getBytes(StandardCharsets.UTF_8));
+
+    assertEquals(4, new RemoteParentSync(localRepo.toFile(), 1, true, logger).sync(setUp()));
+    assertTrue(Files.exists(localRepo.resolve(RemoteParentSync.JOURNAL_FILENAME)));
+
+    // unchanged poms are skipped
+    Files.createFile(localRepo.resolve("corp/root/1/_remote.repositories"));
+    assertEquals(0, new RemoteParentSync(localRepo.toFile(), 1, true, logger).sync(setUp()));
+    assertTrue(Files.exists(localRepo.resolve("corp/root/1/_remote.repositories")));
+
+    // a downloaded again pom is synced again
+    Files.write(rootPom, "<project></project>".getBytes(StandardCharsets.UTF_8));
+    assertEquals(1, new RemoteParentSync(localRepo.toFile(), 1, true, logger).sync(setUp()));
+    assertFalse(Files.exists(localRepo.resolve("corp/root/1/_remote.repositories")));
+  }
+
+  @Test
+  void testKeepConcurrentJournalEntries(@TempDir final Path localRepo) throws Exception {
+    createFlagFiles(localRepo);
+    Files.write(
+        localRepo.resolve("corp/root/1/root-1.pom"), "<project/>".getBytes(StandardCharsets.UTF_8));
+    final Path journal = localRepo.resolve(RemoteParentSync.JOURNAL_FILENAME);
+    final SyncContext syncContext =
+        new SyncContext() {
+          @Override
+          public void acquire(
+              final Collection<? extends Artifact> artifacts,
+              final Collection<? extends Metadata> metadatas) {
+            // another build journals its parent after this one has read the journal
+            try {
+              Files.write(journal, "other\\:parent\\:9=1\\:1\n".getBytes(StandardCharsets.UTF_8));
+            } catch (final IOException err) {
+              throw new UncheckedIOException(err);
+            }
+          }
+
+          @Override
+          public void close() {}
+        };
+    final RepositorySystem repositorySystem =
+        (RepositorySystem)
+            Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class<?>[] {RepositorySystem.class},
+                (proxy, method, args) -> syncContext);
+
+    new RemoteParentSync(
+            localRepo.toFile(),
+            1,
+            true,
+            logger,
+            repositorySystem,
+            new DefaultRepositorySystemSession())
+        .sync(setUp());
+    final Properties entries = new Properties();
+    try (InputStream in = Files.newInputStream(journal)) {
+      entries.load(in);
+    }
+    assertEquals("1:1", entries.getProperty("other:parent:9"));
+    assertNotNull(entries.getProperty("corp:root:1"));
+  }
+
+  @Test
+  void testSyncLocked(@TempDir final Path localRepo) throws Exception {
+    createFlagFiles(localRepo);
+    final List<String> calls = new ArrayList<>();
+    final SyncContext syncContext =
+        new SyncContext() {
+          @Override
+          public void acquire(
+              final Collection<? extends Artifact> artifacts,
+              final Collection<? extends Metadata> metadatas) {
+            calls.add("acquire " + artifacts);
+            // nothing is removed before locked
+            assertTrue(Files.exists(localRepo.resolve("corp/root/1/_remote.repositories")));
+          }
+
+          @Override
+          public void close() {
+            calls.add("close");
+            assertFalse(Files.exists(localRepo.resolve("corp/root/1/_remote.repositories")));
+          }
+        };
+    final RepositorySystem repositorySystem =
+        (RepositorySystem)
+            Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class<?>[] {RepositorySystem.class},
+                (proxy, method, args) -> {
+                  assertEquals("newSyncContext", method.getName());
+                  assertEquals(Boolean.FALSE, args[1]);
+                  return syncContext;
+                });
+
+    final RepositorySystemSession session = new DefaultRepositorySystemSession();
+    assertEquals(
+        4,
+        new RemoteParentSync(localRepo.toFile(), 4, false, logger, repositorySystem, session)
+            .sync(setUp()));
+    // all the remote parents are locked at once
+    assertEquals(Arrays.asList("acquire [corp:parent:pom:2, corp:root:pom:1]", "close"), calls);
+  }
+
+  /** Modules sharing the chain of a local parent, a remote parent and a remote root. */
+  private static List<MavenProject> setUp() {
+    final MavenProject root = newProject("root", "1");
+    final MavenProject parent = newProject("parent", "2");
+    parent.setParent(root);
+    final MavenProject local = newProject("local", "3");
+    local.setParent(parent);
+    local.setFile(new File("pom.xml"));
+
+    final List<MavenProject> projects = new ArrayList<MavenProject>();
+    for (int i = 0; i < 100; ++i) {
+      final MavenProject module = new MavenProject();
+      module.setGroupId("corp");
+      module.setArtifactId("module-" + i);
+      module.setVersion("3");
+      module.setParent(0 == i % 2 ? local : parent);
+      projects.add(module);
+    }
+    return projects;
+  }
+
+  private static MavenProject newProject(final String artifactId, final String version) {
+    final MavenProject project = new MavenProject();
+    project.setGroupId("corp");
+    project.setArtifactId(artifactId);
+    project.setVersion(version);
+    return project;
+  }
+
+  private static void createFlagFiles(final Path repo) throws Exception {
+    createFlagFiles(repo, "root", "1");
+    createFlagFiles(repo, "parent", "2");
+    createFlagFiles(repo, "local", "3");
+  }
+
+  private static void createFlagFiles(
+      final Path repo, final String artifactId, final String version) throws Exception {
+    final Path dir = Files.createDirectories(repo.resolve("corp/" + artifactId + "/" + version));
+    Files.createFile(dir.resolve("_remote.repositories"));
+    Files.createFile(dir.resolve(artifactId + "-" + version + ".pom.lastUpdated"));
+  }
+}
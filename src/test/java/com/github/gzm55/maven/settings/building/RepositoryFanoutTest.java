@@ -0,0 +1,111 @@
+package com.github.gzm55.maven.settings.building;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import org.apache.maven.model.Profile;
+import org.apache.maven.model.Repository;
+import org.apache.maven.settings.Mirror;
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.RepositoryEvent;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.transfer.ArtifactNotFoundException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Tests {@code RepositoryFanout}. */
+public class RepositoryFanoutTest {
+
+  @Test
+  void testReport(@TempDir final Path dir) throws Exception {
+    final Path jar = dir.resolve("a-1.jar");
+    Files.write(jar, new byte[10]);
+
+    final RepositoryFanout fanout = new RepositoryFanout();
+    fanout.declare(
+        Collections.singletonList(
+            newProfile(
+                "corp",
+                newRepository("corp-a", "https://repo.corp/a"),
+                newRepository("corp-b", "https://repo.corp/b"),
+                newRepository("corp-c", "https://repo.corp/c"),
+                newRepository("vendor", "https://repo.vendor/releases"))),
+        Collections.singletonList("corp"),
+        Collections.singletonList(newMirror("vendor-mirror", "https://mirror.corp", "vendor")));
+
+    final RemoteRepository a =
+        new RemoteRepository.Builder("corp-a", "default", "https://repo.corp/a").build();
+    final RemoteRepository b =
+        new RemoteRepository.Builder("corp-b", "default", "https://repo.corp/b").build();
+    final DefaultArtifact artifact = new DefaultArtifact("g:a:1");
+    fanout.onEvent(
+        newEvent(RepositoryEvent.EventType.ARTIFACT_DOWNLOADING, b, artifact, null, null));
+    fanout.onEvent(
+        newEvent(
+            RepositoryEvent.EventType.ARTIFACT_DOWNLOADED,
+            b,
+            artifact,
+            null,
+            new ArtifactNotFoundException(artifact, b)));
+    fanout.onEvent(
+        newEvent(RepositoryEvent.EventType.ARTIFACT_DOWNLOADING, a, artifact, null, null));
+    fanout.onEvent(
+        newEvent(RepositoryEvent.EventType.ARTIFACT_DOWNLOADED, a, artifact, jar.toFile(), null));
+
+    assertEquals(Arrays.asList("corp-b", "corp-c", "vendor-mirror"), fanout.getNeverServed());
+    assertEquals(
+        Collections.singletonMap("repo.corp", Arrays.asList("corp-a", "corp-b", "corp-c")),
+        fanout.getConsolidations());
+    assertTrue(fanout.summary().contains("2 lookups, 1 misses over 4 repositories"));
+
+    final String json = fanout.toJson();
+    assertTrue(
+        json.contains(
+            "{\"id\": \"corp-a\", \"url\": \"https://repo.corp/a\", \"declared\": true, \"mirrorOf\": [],"
+                + " \"lookups\": 1, \"hits\": 1, \"misses\": 0, \"bytes\": 10,"));
+    assertTrue(json.contains("\"id\": \"corp-b\""));
+    assertTrue(json.contains("\"mirrorOf\": [\"vendor\"]"));
+    assertFalse(json.contains("\"id\": \"vendor\""));
+  }
+
+  private static RepositoryEvent newEvent(
+      final RepositoryEvent.EventType type,
+      final RemoteRepository repository,
+      final DefaultArtifact artifact,
+      final File file,
+      final Exception exception) {
+    return new RepositoryEvent.Builder(new DefaultRepositorySystemSession(), type)
+        .setRepository(repository)
+        .setArtifact(artifact)
+        .setFile(file)
+        .setException(exception)
+        .build();
+  }
+
+  private static Profile newProfile(final String id, final Repository... repositories) {
+    final Profile profile = new Profile();
+    profile.setId(id);
+    profile.setRepositories(Arrays.asList(repositories));
+    return profile;
+  }
+
+  private static Repository newRepository(final String id, final String url) {
+    final Repository repository = new Repository();
+    repository.setId(id);
+    repository.setUrl(url);
+    return repository;
+  }
+
+  private static Mirror newMirror(final String id, final String url, final String mirrorOf) {
+    final Mirror mirror = new Mirror();
+    mirror.setId(id);
+    mirror.setUrl(url);
+    mirror.setMirrorOf(mirrorOf);
+    return mirror;
+  }
+}
@@ -0,0 +1,105 @@
+package com.github.gzm55.maven.settings.building;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.github.gzm55.maven.settings.merge.ProjectSettingsMerger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.apache.maven.execution.DefaultMavenExecutionRequest;
+import org.apache.maven.execution.MavenExecutionRequest;
+import org.apache.maven.model.Profile;
+import org.apache.maven.model.Repository;
+import org.apache.maven.settings.Mirror;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Tests {@code RepositoryRouting}. */
+public class RepositoryRoutingTest {
+  private final Logger logger = new ConsoleLogger(Logger.LEVEL_DISABLED, "test");
+
+  @Test
+  void testPrefixFiles(@TempDir final Path dir) throws Exception {
+    Files.createDirectories(dir);
+    Files.write(dir.resolve("prefixes-removed.txt"), "/old".getBytes(StandardCharsets.UTF_8));
+
+    final MavenExecutionRequest request = newRequest();
+    assertEquals(2, new RepositoryRouting(dir.toFile(), logger).apply(request, true));
+
+    assertEquals("true", request.getUserProperties().getProperty(RepositoryRouting.PREFIXES_KEY));
+    assertEquals(
+        dir.toFile().getAbsolutePath(),
+        request.getUserProperties().getProperty(RepositoryRouting.PREFIXES_BASEDIR_KEY));
+    final String a =
+        new String(Files.readAllBytes(dir.resolve("prefixes-repo-a.txt")), StandardCharsets.UTF_8);
+    assertTrue(a.contains("\n/com/acme\n/org/acme/tools\n"));
+    assertFalse(a.contains("invalid"));
+    assertTrue(Files.isRegularFile(dir.resolve("prefixes-repo-b.txt")));
+    // the repository without a valid route is not filtered
+    assertFalse(Files.exists(dir.resolve("prefixes-repo-c.txt")));
+    assertFalse(Files.exists(dir.resolve("prefixes-removed.txt")));
+  }
+
+  @Test
+  void testUnsupported(@TempDir final Path dir) {
+    final MavenExecutionRequest request = newRequest();
+    assertEquals(0, new RepositoryRouting(dir.toFile(), logger).apply(request, false));
+    assertNull(request.getUserProperties().getProperty(RepositoryRouting.PREFIXES_KEY));
+
+    // the filter configured explicitly
+    request.getSystemProperties().setProperty(RepositoryRouting.PREFIXES_BASEDIR_KEY, "/filters");
+    assertEquals(0, new RepositoryRouting(dir.toFile(), logger).apply(request, true));
+    assertNull(request.getUserProperties().getProperty(RepositoryRouting.PREFIXES_KEY));
+    assertFalse(Files.exists(dir.resolve("prefixes-repo-a.txt")));
+  }
+
+  @Test
+  void testMirrored() {
+    final MavenExecutionRequest request = newRequest();
+    final Set<String> routed = new HashSet<>(Arrays.asList("repo-a", "repo-b", "all"));
+    assertTrue(RepositoryRouting.getMirrored(request, routed).isEmpty());
+
+    final Repository local = new Repository();
+    local.setId("repo-b");
+    local.setUrl("file:///srv/repo-b");
+    final Profile profile = new Profile();
+    profile.setId("local");
+    profile.addRepository(local);
+    request.addProfile(profile);
+    final Mirror mirror = new Mirror();
+    mirror.setId("all");
+    mirror.setUrl("https://repo.corp/all");
+    mirror.setMirrorOf("external:*");
+    request.addMirror(mirror);
+
+    // the local repository and the mirror itself are routed as declared
+    final Map<String, String> mirrored = RepositoryRouting.getMirrored(request, routed);
+    assertEquals(Collections.singletonMap("repo-a", "all"), mirrored);
+  }
+
+  @Test
+  void testToPrefix() {
+    assertEquals("/com/acme", RepositoryRouting.toPrefix(" com.acme.* "));
+    assertEquals("/org/acme-tools", RepositoryRouting.toPrefix("org.acme-tools"));
+    assertNull(RepositoryRouting.toPrefix("com..acme"));
+    assertNull(RepositoryRouting.toPrefix("com/acme"));
+  }
+
+  private static MavenExecutionRequest newRequest() {
+    final Profile profile = new Profile();
+    profile.setId(ProjectSettingsMerger.ROUTING_PROFILE_ID);
+    profile.addProperty("repo-a", "com.acme, org.acme.tools\n  invalid/group");
+    profile.addProperty("repo-b", "com.vendor");
+    profile.addProperty("repo-c", " ");
+    final MavenExecutionRequest request = new DefaultMavenExecutionRequest();
+    request.addProfile(profile);
+    return request;
+  }
+}
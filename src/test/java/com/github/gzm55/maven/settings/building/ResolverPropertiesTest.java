@@ -0,0 +1,105 @@
+package com.github.gzm55.maven.settings.building;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.github.gzm55.maven.settings.merge.ProjectSettingsMerger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.apache.maven.execution.DefaultMavenExecutionRequest;
+import org.apache.maven.execution.MavenExecutionRequest;
+import org.apache.maven.model.Profile;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Tests {@code ResolverProperties}. */
+public class ResolverPropertiesTest {
+  private final Logger logger = new ConsoleLogger(Logger.LEVEL_DISABLED, "test");
+
+  @Test
+  void testNamedLocks() {
+    final MavenExecutionRequest request = newRequest();
+    request.getSystemProperties().setProperty("aether.connector.basic.threads", "1");
+    assertEquals(5, new ResolverProperties(true, logger).apply(request));
+
+    assertEquals("10", request.getUserProperties().getProperty("maven.artifact.threads"));
+    // given on the command line
+    assertNull(request.getUserProperties().getProperty("aether.connector.basic.threads"));
+    assertEquals(
+        "file-lock", request.getUserProperties().getProperty("aether.syncContext.named.factory"));
+    assertEquals("SHA-1", request.getUserProperties().getProperty("aether.checksums.algorithms"));
+    assertEquals(
+        "true", request.getUserProperties().getProperty("aether.updateCheckManager.sessionState"));
+    assertNull(request.getUserProperties().getProperty("unknown"));
+    assertEquals(MavenExecutionRequest.CHECKSUM_POLICY_WARN, request.getGlobalChecksumPolicy());
+  }
+
+  @Test
+  void testOlderMaven() {
+    final MavenExecutionRequest request = newRequest();
+    request.setGlobalChecksumPolicy(MavenExecutionRequest.CHECKSUM_POLICY_FAIL);
+    assertEquals(3, new ResolverProperties(false, logger).apply(request));
+
+    assertEquals("10", request.getUserProperties().getProperty("maven.artifact.threads"));
+    assertEquals("4", request.getUserProperties().getProperty("aether.connector.basic.threads"));
+    assertNull(request.getUserProperties().getProperty("aether.syncContext.named.factory"));
+    // given by -C
+    assertEquals(MavenExecutionRequest.CHECKSUM_POLICY_FAIL, request.getGlobalChecksumPolicy());
+  }
+
+  @Test
+  void testSkipUpdates() {
+    final MavenExecutionRequest request = newRequest();
+    request.getProfiles().get(0).addProperty(ResolverProperties.SKIP_UPDATES_PROPERTY, "env.CI");
+    new ResolverProperties(true, logger).apply(request);
+    assertFalse(request.isNoSnapshotUpdates());
+
+    request.getSystemProperties().setProperty("env.CI", "true");
+    new ResolverProperties(true, logger).apply(request);
+    assertTrue(request.isNoSnapshotUpdates());
+
+    // forced by -U
+    final MavenExecutionRequest forced = newRequest();
+    forced.getProfiles().get(0).addProperty(ResolverProperties.SKIP_UPDATES_PROPERTY, "env.CI");
+    forced.getSystemProperties().setProperty("env.CI", "true");
+    forced.setUpdateSnapshots(true);
+    new ResolverProperties(true, logger).apply(forced);
+    assertFalse(forced.isNoSnapshotUpdates());
+  }
+
+  @Test
+  void testLocalRepositoryTail(@TempDir final Path dir) throws Exception {
+    Files.createDirectories(dir.resolve("seed"));
+    final Path image = Files.createDirectories(dir.resolve("image"));
+    final MavenExecutionRequest request = newRequest();
+    request.setMultiModuleProjectDirectory(dir.toFile());
+    request
+        .getProfiles()
+        .get(0)
+        .addProperty(ResolverProperties.LOCAL_REPOSITORY_TAIL, "seed, absent," + image);
+
+    new ResolverProperties(false, logger).apply(request);
+    assertNull(request.getUserProperties().getProperty("maven.repo.local.tail"));
+
+    new ResolverProperties(true, logger).apply(request);
+    assertEquals(
+        dir.resolve("seed").toFile().getAbsolutePath() + "," + image.toFile().getAbsolutePath(),
+        request.getUserProperties().getProperty("maven.repo.local.tail"));
+  }
+
+  private static MavenExecutionRequest newRequest() {
+    final Profile profile = new Profile();
+    profile.setId(ProjectSettingsMerger.RESOLVER_PROFILE_ID);
+    profile.addProperty(ResolverProperties.THREADS, "10");
+    profile.addProperty(ResolverProperties.CONNECTOR_THREADS, "4");
+    profile.addProperty(ResolverProperties.CHECKSUM_POLICY, "warn");
+    profile.addProperty(ResolverProperties.CHECKSUM_ALGORITHMS, "SHA-1");
+    profile.addProperty(ResolverProperties.SYNC_CONTEXT_FACTORY, "file-lock");
+    profile.addProperty("aether.updateCheckManager.sessionState", "true");
+    profile.addProperty("unknown", "1");
+    final MavenExecutionRequest request = new DefaultMavenExecutionRequest();
+    request.addProfile(profile);
+    return request;
+  }
+}
@@ -0,0 +1,90 @@
+package com.github.gzm55.maven.settings.building;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.apache.maven.building.FileSource;
+import org.apache.maven.building.StringSource;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Tests {@code SettingsMemoryCache}. */
+public class SettingsMemoryCacheTest {
+  private final Logger logger = new ConsoleLogger(Logger.LEVEL_DISABLED, "test");
+
+  @Test
+  void testInvalidateByStamp(@TempDir final Path tempDir) throws Exception {
+    final File file = tempDir.resolve("settings.xml").toFile();
+    Files.write(file.toPath(), "<settings/>".getBytes(StandardCharsets.UTF_8));
+
+    final SettingsMemoryCache cache = new SettingsMemoryCache(2);
+    final SourceFingerprint project = new SourceFingerprint(new FileSource(file));
+    final SourceFingerprint inject = new SourceFingerprint(new StringSource("<settings/>"));
+    cache.put("k", new SettingsMemoryCache.Entry("merged", null, project, inject));
+
+    final SettingsMemoryCache.Entry entry =
+        cache.get(
+            "k",
+            new SourceFingerprint(new FileSource(file)),
+            new SourceFingerprint(new StringSource("<settings/>")),
+            logger);
+    assertNotNull(entry);
+    assertEquals("merged", entry.getSettings());
+
+    // a different content of a non-file source
+    assertNull(
+        cache.get(
+            "k",
+            new SourceFingerprint(new FileSource(file)),
+            new SourceFingerprint(new StringSource("<settings></settings>")),
+            logger));
+    assertEquals(0, cache.size());
+
+    // a modified file
+    cache.put("k", new SettingsMemoryCache.Entry("merged", null, project, null));
+    Files.write(file.toPath(), "<settings></settings>".getBytes(StandardCharsets.UTF_8));
+    assertNull(cache.get("k", new SourceFingerprint(new FileSource(file)), null, logger));
+  }
+
+  @Test
+  void testInvalidateByDigest(@TempDir final Path tempDir) throws Exception {
+    final File file = tempDir.resolve("settings.xml").toFile();
+    Files.write(
+        file.toPath(),
+        "<settings><offline>true</offline></settings>".getBytes(StandardCharsets.UTF_8));
+    final long lastModified = file.lastModified();
+
+    final SettingsMemoryCache cache = new SettingsMemoryCache(2);
+    cache.put(
+        "k",
+        new SettingsMemoryCache.Entry(
+            "merged", null, new SourceFingerprint(new FileSource(file)), null));
+
+    // a same-size edit within the granularity of the modification time
+    Files.write(
+        file.toPath(),
+        "<settings><offline>ture</offline></settings>".getBytes(StandardCharsets.UTF_8));
+    assertTrue(file.setLastModified(lastModified));
+    assertNull(cache.get("k", new SourceFingerprint(new FileSource(file)), null, logger));
+  }
+
+  @Test
+  void testEvictLeastRecentlyUsed() {
+    final SettingsMemoryCache cache = new SettingsMemoryCache(2);
+    final SourceFingerprint project = new SourceFingerprint(new StringSource("<settings/>"));
+    cache.put("a", new SettingsMemoryCache.Entry("A", null, project, null));
+    cache.put("b", new SettingsMemoryCache.Entry("B", null, project, null));
+    assertNotNull(cache.get("a", project, null, logger));
+    cache.put("c", new SettingsMemoryCache.Entry("C", null, project, null));
+
+    assertEquals(2, cache.size());
+    assertNotNull(cache.get("a", project, null, logger));
+    assertNull(cache.get("b", project, null, logger));
+    assertNotNull(cache.get("c", project, null, logger));
+  }
+}
@@ -0,0 +1,104 @@
+package com.github.gzm55.maven.settings.building;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import org.apache.maven.building.FileSource;
+import org.apache.maven.settings.Settings;
+import org.apache.maven.settings.io.DefaultSettingsReader;
+import org.apache.maven.settings.io.DefaultSettingsWriter;
+import org.apache.maven.settings.io.SettingsReader;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Tests {@code SettingsSnapshot}. */
+public class SettingsSnapshotTest {
+  private static final String SETTINGS =
+      "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+          + "<settings><localRepository>repo</localRepository><offline>true</offline>"
+          + "<proxies><proxy><id>p</id><host>h</host><port>8080</port></proxy></proxies>"
+          + "<servers><server><id>s</id><username>u</username><configuration>"
+          + "<httpHeaders><property><name>n</name><value>v</value></property></httpHeaders>"
+          + "<timeout a=\"b\">10</timeout></configuration></server></servers>"
+          + "<mirrors><mirror><id>m</id><url>u</url><mirrorOf>*</mirrorOf><blocked>true</blocked>"
+          + "</mirror></mirrors>"
+          + "<profiles><profile><id>pr</id><activation><activeByDefault>true</activeByDefault>"
+          + "<os><family>unix</family></os><property><name>x</name></property>"
+          + "<file><exists>f</exists></file></activation>"
+          + "<properties><k>é</k></properties>"
+          + "<repositories><repository><id>r</id><url>u</url>"
+          + "<snapshots><enabled>false</enabled></snapshots></repository></repositories>"
+          + "<pluginRepositories><pluginRepository><id>pr</id><url>u</url>"
+          + "<releases><updatePolicy>never</updatePolicy></releases></pluginRepository>"
+          + "</pluginRepositories></profile></profiles>"
+          + "<activeProfiles><activeProfile>pr</activeProfile></activeProfiles>"
+          + "<pluginGroups><pluginGroup>g</pluginGroup></pluginGroups></settings>";
+
+  private final Logger logger = new ConsoleLogger(Logger.LEVEL_DISABLED, "test");
+
+  @Test
+  void testRoundTrip() throws Exception {
+    final Settings settings = read(SETTINGS);
+
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    SettingsSnapshot.encode(settings, out);
+    final Settings decoded = SettingsSnapshot.decode(new ByteArrayInputStream(out.toByteArray()));
+
+    assertEquals(write(settings), write(decoded));
+  }
+
+  @Test
+  void testInvalidate(@TempDir final Path tempDir) throws Exception {
+    final File file = tempDir.resolve("settings.xml").toFile();
+    Files.write(file.toPath(), SETTINGS.getBytes(StandardCharsets.UTF_8));
+    final File snapshotDir = tempDir.resolve("snapshots").toFile();
+
+    final SettingsSnapshot snapshot = new SettingsSnapshot(snapshotDir, "3.9.0", logger);
+    assertNull(snapshot.read(new SourceFingerprint(new FileSource(file))));
+    snapshot.write(new SourceFingerprint(new FileSource(file)), read(SETTINGS));
+
+    // the same content with a new stamp is still valid by the digest
+    assertTrue(file.setLastModified(file.lastModified() - 10000L));
+    final Settings settings = snapshot.read(new SourceFingerprint(new FileSource(file)));
+    assertNotNull(settings);
+    assertEquals("m", settings.getMirrors().get(0).getId());
+
+    // another maven version
+    assertNull(
+        new SettingsSnapshot(snapshotDir, "3.9.1", logger)
+            .read(new SourceFingerprint(new FileSource(file))));
+
+    // a changed content
+    Files.write(file.toPath(), "<settings/>".getBytes(StandardCharsets.UTF_8));
+    assertNull(snapshot.read(new SourceFingerprint(new FileSource(file))));
+
+    // a same-size edit keeping the stamp
+    snapshot.write(new SourceFingerprint(new FileSource(file)), read("<settings/>"));
+    final long lastModified = file.lastModified();
+    Files.write(file.toPath(), "<setting/>>".getBytes(StandardCharsets.UTF_8));
+    assertTrue(file.setLastModified(lastModified));
+    assertNull(snapshot.read(new SourceFingerprint(new FileSource(file))));
+  }
+
+  private static Settings read(final String settings) throws Exception {
+    return new DefaultSettingsReader()
+        .read(
+            new ByteArrayInputStream(settings.getBytes(StandardCharsets.UTF_8)),
+            Collections.singletonMap(SettingsReader.IS_STRICT, Boolean.TRUE));
+  }
+
+  private static String write(final Settings settings) throws Exception {
+    final StringWriter writer = new StringWriter();
+    new DefaultSettingsWriter().write(writer, null, settings);
+    return writer.toString();
+  }
+}
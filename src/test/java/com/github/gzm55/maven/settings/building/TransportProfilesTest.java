@@ -0,0 +1,89 @@
+package com.github.gzm55.maven.settings.building;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import org.apache.maven.settings.Server;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+import org.codehaus.plexus.util.xml.Xpp3DomBuilder;
+import org.junit.jupiter.api.Test;
+
+/** Tests {@code TransportProfiles}. */
+public class TransportProfilesTest {
+  private final Logger logger = new ConsoleLogger(Logger.LEVEL_DISABLED, "test");
+
+  private final Properties userProps = new Properties();
+  private final Properties sysProps = new Properties();
+  private final Properties wagonProps = new Properties();
+
+  @Test
+  void testResolverTransport() throws Exception {
+    final List<Server> servers = setUp();
+    assertEquals(
+        2, new TransportProfiles(true, logger).apply(servers, userProps, sysProps, wagonProps));
+
+    final Xpp3Dom a = (Xpp3Dom) servers.get(0).getConfiguration();
+    assertNull(a.getChild(TransportProfiles.TRANSPORT));
+    assertEquals("5000", a.getChild("connectTimeout").getValue());
+    // explicitly configured
+    assertEquals("100", a.getChild("requestTimeout").getValue());
+    assertEquals("5", userProps.getProperty("aether.connector.http.retryHandler.count.a"));
+    assertEquals("40", userProps.getProperty("aether.connector.http.maxConnectionsPerRoute.a"));
+    assertEquals("7", userProps.getProperty("aether.connector.http.retryHandler.count.b"));
+    assertNull(userProps.getProperty("aether.connector.http.connectionMaxTtl.b"));
+    assertEquals("10", userProps.getProperty("maven.artifact.threads"));
+    assertTrue(wagonProps.isEmpty());
+  }
+
+  @Test
+  void testWagonTransport() throws Exception {
+    final List<Server> servers = setUp();
+    sysProps.setProperty("maven.wagon.httpconnectionManager.maxPerRoute", "8");
+    final TransportProfiles profiles = new TransportProfiles(false, logger);
+    assertEquals(2, profiles.apply(servers, userProps, sysProps, wagonProps));
+
+    final Xpp3Dom all =
+        ((Xpp3Dom) servers.get(0).getConfiguration()).getChild("httpConfiguration").getChild("all");
+    assertEquals("5000", all.getChild("connectionTimeout").getValue());
+    assertNull(((Xpp3Dom) servers.get(1).getConfiguration()).getChild("httpConfiguration"));
+    // the largest of all servers
+    assertEquals("7", wagonProps.getProperty("maven.wagon.http.retryHandler.count"));
+    // explicitly configured
+    assertNull(wagonProps.getProperty("maven.wagon.httpconnectionManager.maxPerRoute"));
+    assertEquals("10", userProps.getProperty("maven.artifact.threads"));
+
+    // never leak into the next session, but keep the ones set by others
+    wagonProps.setProperty("maven.wagon.httpconnectionManager.ttlSeconds", "60");
+    profiles.restore(wagonProps);
+    assertEquals(1, wagonProps.size());
+    assertEquals("60", wagonProps.getProperty("maven.wagon.httpconnectionManager.ttlSeconds"));
+  }
+
+  private static List<Server> setUp() throws Exception {
+    final Server a = new Server();
+    a.setId("a");
+    a.setConfiguration(
+        Xpp3DomBuilder.build(
+            new StringReader(
+                "<configuration><requestTimeout>100</requestTimeout><transport>"
+                    + "<connectTimeout>5000</connectTimeout><requestTimeout>30000</requestTimeout>"
+                    + "<retryCount>5</retryCount><maxConnectionsPerRoute>40</maxConnectionsPerRoute>"
+                    + "<parallelConnections>10</parallelConnections><http2>true</http2>"
+                    + "</transport></configuration>")));
+    final Server b = new Server();
+    b.setId("b");
+    b.setConfiguration(
+        Xpp3DomBuilder.build(
+            new StringReader(
+                "<configuration><transport><retryCount>7</retryCount>"
+                    + "<connectionMaxTtl>invalid</connectionMaxTtl></transport></configuration>")));
+    final Server c = new Server();
+    c.setId("c");
+    return Arrays.asList(a, b, c);
+  }
+}
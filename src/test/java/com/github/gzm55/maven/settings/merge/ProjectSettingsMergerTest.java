@@ -8,6 +8,9 @@ import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Properties;
+import org.apache.maven.settings.Profile;
+import org.apache.maven.settings.Repository;
 import org.apache.maven.settings.Server;
 import org.apache.maven.settings.Settings;
 import org.apache.maven.settings.TrackableBase;
@@ -91,6 +94,91 @@ public class ProjectSettingsMergerTest extends PlexusJUnit5TestCase {
     assertEquals("pUK222", conf.getChild("v2").getValue());
   }
 
+  @Test
+  void testMergeResolverProperties() throws Exception {
+    final String pSettings =
+        "<settings><profiles><profile>"
+            + "<id>project-settings-resolver</id>"
+            + "<properties><threads>10</threads><checksumPolicy>fail</checksumPolicy></properties>"
+            + "</profile></profiles></settings>";
+    final String uSettings =
+        "<settings><profiles><profile>"
+            + "<id>project-settings-resolver</id>"
+            + "<properties><threads>2</threads><connectorThreads>3</connectorThreads></properties>"
+            + "</profile></profiles></settings>";
+
+    final Settings projectSettings = merge(pSettings, uSettings);
+    assertEquals(1, projectSettings.getProfiles().size());
+    final Properties props = projectSettings.getProfiles().get(0).getProperties();
+    assertEquals("2", props.getProperty("threads"));
+    assertEquals("3", props.getProperty("connectorThreads"));
+    assertEquals("fail", props.getProperty("checksumPolicy"));
+
+    // an inner layer wins over an outer one
+    final Settings inner = settingsFromString(uSettings);
+    new ProjectSettingsMerger().mergeLayer(inner, settingsFromString(pSettings));
+    assertEquals("2", inner.getProfiles().get(0).getProperties().getProperty("threads"));
+    assertEquals("fail", inner.getProfiles().get(0).getProperties().getProperty("checksumPolicy"));
+  }
+
+  @Test
+  void testThrottleUpdatePolicies() throws Exception {
+    final String pSettings =
+        "<settings><profiles>"
+            + "<profile><id>project-settings-resolver</id>"
+            + "<properties><updatePolicy>interval:60</updatePolicy></properties></profile>"
+            + "<profile><id>corp</id><repositories>"
+            + "<repository><id>a</id><url>u</url>"
+            + "<snapshots><updatePolicy>always</updatePolicy></snapshots></repository>"
+            + "<repository><id>b</id><url>u</url>"
+            + "<releases><updatePolicy>never</updatePolicy></releases>"
+            + "<snapshots><updatePolicy>interval:10</updatePolicy></snapshots></repository>"
+            + "</repositories></profile>"
+            + "</profiles></settings>";
+    final String uSettings =
+        "<settings><profiles><profile><id>local</id><pluginRepositories>"
+            + "<pluginRepository><id>c</id><url>u</url>"
+            + "<snapshots><updatePolicy>always</updatePolicy></snapshots></pluginRepository>"
+            + "</pluginRepositories></profile></profiles></settings>";
+
+    final Map<String, Profile> profiles = merge(pSettings, uSettings).getProfilesAsMap();
+    final Repository a = profiles.get("corp").getRepositories().get(0);
+    assertEquals("interval:60", a.getSnapshots().getUpdatePolicy());
+    // absent as daily, less frequent
+    assertNull(a.getReleases());
+    final Repository b = profiles.get("corp").getRepositories().get(1);
+    assertEquals("never", b.getReleases().getUpdatePolicy());
+    assertEquals("interval:60", b.getSnapshots().getUpdatePolicy());
+    assertEquals(
+        "interval:60",
+        profiles.get("local").getPluginRepositories().get(0).getSnapshots().getUpdatePolicy());
+
+    // overridden by the user
+    final String overridden =
+        "<settings><profiles><profile><id>project-settings-resolver</id>"
+            + "<properties><updatePolicy>always</updatePolicy></properties>"
+            + "</profile></profiles></settings>";
+    assertEquals(
+        "always",
+        merge(pSettings, overridden)
+            .getProfilesAsMap()
+            .get("corp")
+            .getRepositories()
+            .get(0)
+            .getSnapshots()
+            .getUpdatePolicy());
+  }
+
+  @Test
+  void testToMinutes() {
+    assertEquals(0L, ProjectSettingsMerger.toMinutes("always"));
+    assertEquals(90L, ProjectSettingsMerger.toMinutes("interval:90"));
+    assertEquals(24 * 60L, ProjectSettingsMerger.toMinutes("daily"));
+    assertEquals(Long.MAX_VALUE, ProjectSettingsMerger.toMinutes("never"));
+    assertEquals(-1L, ProjectSettingsMerger.toMinutes("interval:x"));
+    assertEquals(-1L, ProjectSettingsMerger.toMinutes(null));
+  }
+
   Settings settingsFromString(final String settingsString) throws Exception {
     return new DefaultSettingsReader()
         .read(new ByteArrayInputStream(settingsString.getBytes(StandardCharsets.UTF_8)), options);